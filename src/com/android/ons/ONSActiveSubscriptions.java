@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ons;
+
+import android.telephony.SubscriptionInfo;
+import android.telephony.SubscriptionManager;
+import android.util.SparseArray;
+import android.util.SparseIntArray;
+
+import java.util.List;
+
+/**
+ * Immutable snapshot of the active subscriptions, indexed by subscription id.
+ * Mirrors SubscriptionManager#getActiveSubscriptionInfoList so that the profile selection does
+ * not go over binder for every active subscription check. A new snapshot is published whenever
+ * the subscriptions change.
+ */
+final class ONSActiveSubscriptions {
+    static final ONSActiveSubscriptions EMPTY = from(null);
+
+    private final SparseArray<SubscriptionInfo> mActiveSubs;
+    /* active subscription id per SIM slot */
+    private final SparseIntArray mSlotSubIds;
+    /* first active opportunistic subscription */
+    private final int mActiveOpportunisticSubId;
+    /* a primary subscription is active on an eSIM */
+    private final boolean mPrimaryActiveOnEmbedded;
+
+    private ONSActiveSubscriptions(SparseArray<SubscriptionInfo> activeSubs,
+            SparseIntArray slotSubIds, int activeOpportunisticSubId,
+            boolean primaryActiveOnEmbedded) {
+        mActiveSubs = activeSubs;
+        mSlotSubIds = slotSubIds;
+        mActiveOpportunisticSubId = activeOpportunisticSubId;
+        mPrimaryActiveOnEmbedded = primaryActiveOnEmbedded;
+    }
+
+    /**
+     * @param activeSubscriptions active subscriptions as reported by SubscriptionManager,
+     *                            may be null.
+     */
+    static ONSActiveSubscriptions from(List<SubscriptionInfo> activeSubscriptions) {
+        SparseArray<SubscriptionInfo> activeSubs = new SparseArray<SubscriptionInfo>();
+        SparseIntArray slotSubIds = new SparseIntArray();
+        int activeOpportunisticSubId = SubscriptionManager.INVALID_SUBSCRIPTION_ID;
+        boolean primaryActiveOnEmbedded = false;
+        if (activeSubscriptions != null) {
+            for (SubscriptionInfo subInfo : activeSubscriptions) {
+                activeSubs.put(subInfo.getSubscriptionId(), subInfo);
+                slotSubIds.put(subInfo.getSimSlotIndex(), subInfo.getSubscriptionId());
+                if (subInfo.isOpportunistic()) {
+                    if (activeOpportunisticSubId == SubscriptionManager.INVALID_SUBSCRIPTION_ID) {
+                        activeOpportunisticSubId = subInfo.getSubscriptionId();
+                    }
+                } else if (subInfo.isEmbedded()) {
+                    primaryActiveOnEmbedded = true;
+                }
+            }
+        }
+        return new ONSActiveSubscriptions(activeSubs, slotSubIds, activeOpportunisticSubId,
+                primaryActiveOnEmbedded);
+    }
+
+    boolean isActive(int subId) {
+        return mActiveSubs.indexOfKey(subId) >= 0;
+    }
+
+    /**
+     * @return subscription info of an active subscription, null if the subscription is not
+     * active.
+     */
+    SubscriptionInfo getActiveSubscription(int subId) {
+        return mActiveSubs.get(subId);
+    }
+
+    /**
+     * @return the subscription active on a SIM slot or INVALID_SUBSCRIPTION_ID if there is none.
+     */
+    int getSubIdForSlot(int slotIndex) {
+        return mSlotSubIds.get(slotIndex, SubscriptionManager.INVALID_SUBSCRIPTION_ID);
+    }
+
+    /**
+     * @return an active opportunistic subscription or INVALID_SUBSCRIPTION_ID if there is none.
+     */
+    int getActiveOpportunisticSubId() {
+        return mActiveOpportunisticSubId;
+    }
+
+    boolean isPrimaryActiveOnEmbedded() {
+        return mPrimaryActiveOnEmbedded;
+    }
+
+    int size() {
+        return mActiveSubs.size();
+    }
+}
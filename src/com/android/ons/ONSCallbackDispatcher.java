@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ons;
+
+import android.os.IBinder;
+import android.os.RemoteException;
+
+import com.android.internal.annotations.VisibleForTesting;
+import com.android.internal.telephony.IUpdateAvailableNetworksCallback;
+import com.android.telephony.Rlog;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.concurrent.Executor;
+
+/**
+ * Delivers update available networks results to their callbacks on the background executor,
+ * off the profile selector thread, so that a slow or hung client cannot stall the selection.
+ * Results are queued per callback binder: a result not delivered yet is replaced by a newer
+ * one for the same callback, and callbacks whose binder has died are dropped.
+ */
+class ONSCallbackDispatcher {
+    private static final String LOG_TAG = "ONSCallbackDispatcher";
+
+    private final Object mLock = new Object();
+    /* pending result per callback binder in arrival order, guarded by mLock */
+    private final LinkedHashMap<Object, PendingResult> mPendingResults = new LinkedHashMap<>();
+    private final Executor mExecutor;
+    private int mCollapsedCount;
+    private int mDroppedCount;
+
+    private static final class PendingResult {
+        final IUpdateAvailableNetworksCallback mCallback;
+        int mResult;
+
+        PendingResult(IUpdateAvailableNetworksCallback callback, int result) {
+            mCallback = callback;
+            mResult = result;
+        }
+    }
+
+    /**
+     * @param executor executor results are delivered on, owned by the caller.
+     */
+    ONSCallbackDispatcher(Executor executor) {
+        mExecutor = executor;
+    }
+
+    /**
+     * queue a result for delivery.
+     * @param callback callback to answer, nothing is done if null.
+     */
+    void dispatch(IUpdateAvailableNetworksCallback callback, int result) {
+        if (callback == null) {
+            return;
+        }
+        IBinder binder = callback.asBinder();
+        if (binder != null && !binder.isBinderAlive()) {
+            synchronized (mLock) {
+                mDroppedCount++;
+            }
+            return;
+        }
+        Object key = binder != null ? binder : callback;
+        boolean deliveryNeeded;
+        synchronized (mLock) {
+            PendingResult pending = mPendingResults.get(key);
+            if (pending != null) {
+                /* the previous result was superseded before it was delivered */
+                pending.mResult = result;
+                mCollapsedCount++;
+                return;
+            }
+            mPendingResults.put(key, new PendingResult(callback, result));
+            deliveryNeeded = mPendingResults.size() == 1;
+        }
+        /* outside of the lock, the executor may run the delivery inline */
+        if (deliveryNeeded) {
+            mExecutor.execute(this::deliverPendingResults);
+        }
+    }
+
+    private void deliverPendingResults() {
+        ArrayList<PendingResult> results;
+        synchronized (mLock) {
+            results = new ArrayList<>(mPendingResults.values());
+            mPendingResults.clear();
+        }
+        for (PendingResult pending : results) {
+            IBinder binder = pending.mCallback.asBinder();
+            if (binder != null && !binder.isBinderAlive()) {
+                synchronized (mLock) {
+                    mDroppedCount++;
+                }
+                continue;
+            }
+            try {
+                pending.mCallback.onComplete(pending.mResult);
+            } catch (RemoteException exception) {
+                Rlog.d(LOG_TAG, "RemoteException " + exception);
+            }
+        }
+    }
+
+    @VisibleForTesting
+    int getCollapsedCount() {
+        synchronized (mLock) {
+            return mCollapsedCount;
+        }
+    }
+
+    @VisibleForTesting
+    int getDroppedCount() {
+        synchronized (mLock) {
+            return mDroppedCount;
+        }
+    }
+}
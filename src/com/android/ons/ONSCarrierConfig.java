@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ons;
+
+import android.os.PersistableBundle;
+import android.telephony.CarrierConfigManager;
+
+import com.android.internal.annotations.VisibleForTesting;
+
+/**
+ * Immutable snapshot of the carrier config values used by ONS for one subscription.
+ */
+final class ONSCarrierConfig {
+    /* carrier config keys for the scan interval bounds, read from the carrier config bundle if
+       set. See ONSScanScheduler. */
+    @VisibleForTesting
+    static final String KEY_OPPORTUNISTIC_NETWORK_SCAN_MIN_INTERVAL_SEC_INT =
+            "opportunistic_network_scan_min_interval_sec_int";
+    @VisibleForTesting
+    static final String KEY_OPPORTUNISTIC_NETWORK_SCAN_MAX_INTERVAL_SEC_INT =
+            "opportunistic_network_scan_max_interval_sec_int";
+    /* carrier config key for the window over which partial scan results are aggregated. See
+       ONSNetworkScanCtlr. */
+    @VisibleForTesting
+    static final String KEY_OPPORTUNISTIC_NETWORK_SCAN_AGGREGATION_WINDOW_MS_LONG =
+            "opportunistic_network_scan_aggregation_window_ms_long";
+    /* carrier config keys for the operation timeouts. See ONSOperationDeadlines. */
+    @VisibleForTesting
+    static final String KEY_OPPORTUNISTIC_NETWORK_SWITCH_TIMEOUT_MS_LONG =
+            "opportunistic_network_switch_timeout_ms_long";
+    @VisibleForTesting
+    static final String KEY_OPPORTUNISTIC_NETWORK_ENABLE_MODEM_TIMEOUT_MS_LONG =
+            "opportunistic_network_enable_modem_timeout_ms_long";
+    @VisibleForTesting
+    static final String KEY_OPPORTUNISTIC_NETWORK_SET_PREFERRED_DATA_TIMEOUT_MS_LONG =
+            "opportunistic_network_set_preferred_data_timeout_ms_long";
+
+    final int mSubId;
+    /* lower (exit) thresholds are used to enable the modem stack */
+    final int mRsrpEntryThreshold;
+    final int mSsRsrpEntryThreshold;
+    final boolean mIs4gScanEnabled;
+    final int mScanMinIntervalSec;
+    final int mScanMaxIntervalSec;
+    final long mScanAggregationWindowMs;
+    final long mSwitchSubscriptionTimeoutMs;
+    final long mEnableModemTimeoutMs;
+    final long mSetPreferredDataTimeoutMs;
+
+    private ONSCarrierConfig(int subId, PersistableBundle b) {
+        mSubId = subId;
+        mRsrpEntryThreshold = b.getInt(
+                CarrierConfigManager.KEY_OPPORTUNISTIC_NETWORK_EXIT_THRESHOLD_RSRP_INT);
+        mSsRsrpEntryThreshold = b.getInt(
+                CarrierConfigManager.KEY_OPPORTUNISTIC_NETWORK_EXIT_THRESHOLD_SS_RSRP_INT);
+        mIs4gScanEnabled = b.getBoolean(
+                CarrierConfigManager.KEY_ENABLE_4G_OPPORTUNISTIC_NETWORK_SCAN_BOOL);
+        mScanMinIntervalSec = b.getInt(KEY_OPPORTUNISTIC_NETWORK_SCAN_MIN_INTERVAL_SEC_INT,
+                ONSScanScheduler.DEFAULT_MIN_INTERVAL_SEC);
+        mScanMaxIntervalSec = b.getInt(KEY_OPPORTUNISTIC_NETWORK_SCAN_MAX_INTERVAL_SEC_INT,
+                ONSScanScheduler.DEFAULT_MAX_INTERVAL_SEC);
+        mScanAggregationWindowMs = getPositiveLong(b,
+                KEY_OPPORTUNISTIC_NETWORK_SCAN_AGGREGATION_WINDOW_MS_LONG,
+                ONSNetworkScanCtlr.DEFAULT_AGGREGATION_WINDOW_MS);
+        mSwitchSubscriptionTimeoutMs = getPositiveLong(b,
+                KEY_OPPORTUNISTIC_NETWORK_SWITCH_TIMEOUT_MS_LONG,
+                ONSOperationDeadlines.DEFAULT_SWITCH_SUBSCRIPTION_TIMEOUT_MS);
+        mEnableModemTimeoutMs = getPositiveLong(b,
+                KEY_OPPORTUNISTIC_NETWORK_ENABLE_MODEM_TIMEOUT_MS_LONG,
+                ONSOperationDeadlines.DEFAULT_ENABLE_MODEM_TIMEOUT_MS);
+        mSetPreferredDataTimeoutMs = getPositiveLong(b,
+                KEY_OPPORTUNISTIC_NETWORK_SET_PREFERRED_DATA_TIMEOUT_MS_LONG,
+                ONSOperationDeadlines.DEFAULT_SET_PREFERRED_DATA_TIMEOUT_MS);
+    }
+
+    /* missing and non-positive values fall back to the default */
+    private static long getPositiveLong(PersistableBundle b, String key, long defaultValue) {
+        long value = b.getLong(key, defaultValue);
+        return value > 0 ? value : defaultValue;
+    }
+
+    /**
+     * load the carrier config of a subscription. This is a binder call.
+     * @param configManager carrier config manager, may be null.
+     * @param subId subscription id. If invalid, the bundle contains default values.
+     */
+    static ONSCarrierConfig load(CarrierConfigManager configManager, int subId) {
+        PersistableBundle b = null;
+        if (configManager != null) {
+            b = configManager.getConfigForSubId(subId);
+        }
+        return fromBundle(subId, b);
+    }
+
+    @VisibleForTesting
+    static ONSCarrierConfig fromBundle(int subId, PersistableBundle b) {
+        if (b == null) {
+            // Use static default defined in CarrierConfigManager.
+            b = CarrierConfigManager.getDefaultConfig();
+        }
+        return new ONSCarrierConfig(subId, b);
+    }
+
+    @Override
+    public String toString() {
+        return "ONSCarrierConfig: subId " + mSubId
+                + " rsrp " + mRsrpEntryThreshold
+                + " ssRsrp " + mSsRsrpEntryThreshold
+                + " 4gScan " + mIs4gScanEnabled
+                + " scanInterval [" + mScanMinIntervalSec + ", " + mScanMaxIntervalSec + "]"
+                + " aggregationWindow " + mScanAggregationWindowMs + "ms"
+                + " timeouts [" + mSwitchSubscriptionTimeoutMs + ", " + mEnableModemTimeoutMs
+                + ", " + mSetPreferredDataTimeoutMs + "]ms";
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ons;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.Handler;
+import android.telephony.CarrierConfigManager;
+import android.telephony.SubscriptionManager;
+import android.util.SparseArray;
+
+import com.android.telephony.Rlog;
+
+/**
+ * Per subscription cache of {@link ONSCarrierConfig} snapshots.
+ * A snapshot is loaded once per subscription and replaced when
+ * {@link CarrierConfigManager#ACTION_CARRIER_CONFIG_CHANGED} is received for it.
+ * Readers get an immutable snapshot without locking, the map is copied on write.
+ */
+class ONSCarrierConfigCache {
+    private static final String LOG_TAG = "ONSCarrierConfigCache";
+
+    private final Context mContext;
+    private final CarrierConfigManager mConfigManager;
+    private final Object mWriteLock = new Object();
+    private volatile SparseArray<ONSCarrierConfig> mConfigs = new SparseArray<>();
+
+    private final BroadcastReceiver mCarrierConfigChangedReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            if (!CarrierConfigManager.ACTION_CARRIER_CONFIG_CHANGED.equals(intent.getAction())) {
+                return;
+            }
+            int subId = intent.getIntExtra(CarrierConfigManager.EXTRA_SUBSCRIPTION_INDEX,
+                    SubscriptionManager.INVALID_SUBSCRIPTION_ID);
+            onCarrierConfigChanged(subId);
+        }
+    };
+
+    /**
+     * @param context context used to register for carrier config changes.
+     * @param handler handler on which carrier config changes are processed.
+     */
+    ONSCarrierConfigCache(Context context, Handler handler) {
+        mContext = context;
+        mConfigManager = (CarrierConfigManager) context.getSystemService(
+                Context.CARRIER_CONFIG_SERVICE);
+        context.registerReceiver(mCarrierConfigChangedReceiver,
+                new IntentFilter(CarrierConfigManager.ACTION_CARRIER_CONFIG_CHANGED), null,
+                handler);
+    }
+
+    /**
+     * @return the carrier config snapshot of a subscription, loaded on first use.
+     */
+    ONSCarrierConfig get(int subId) {
+        ONSCarrierConfig config = mConfigs.get(subId);
+        if (config == null) {
+            config = ONSCarrierConfig.load(mConfigManager, subId);
+            put(config);
+        }
+        return config;
+    }
+
+    /**
+     * @return the carrier config snapshot of the default subscription.
+     */
+    ONSCarrierConfig getForDefaultSubscription() {
+        return get(SubscriptionManager.getDefaultSubscriptionId());
+    }
+
+    /**
+     * stop listening for carrier config changes. Snapshots already loaded are kept.
+     */
+    void dispose() {
+        mContext.unregisterReceiver(mCarrierConfigChangedReceiver);
+    }
+
+    private void onCarrierConfigChanged(int subId) {
+        /* only reload the subscriptions already in use, others load on first use */
+        if (mConfigs.get(subId) == null) {
+            return;
+        }
+        ONSCarrierConfig config = ONSCarrierConfig.load(mConfigManager, subId);
+        Rlog.d(LOG_TAG, "carrier config changed " + config);
+        put(config);
+    }
+
+    private void put(ONSCarrierConfig config) {
+        synchronized (mWriteLock) {
+            SparseArray<ONSCarrierConfig> configs = mConfigs.clone();
+            configs.put(config.mSubId, config);
+            mConfigs = configs;
+        }
+    }
+}
@@ -22,6 +22,7 @@ import android.telephony.SubscriptionManager;
 import com.android.internal.telephony.IUpdateAvailableNetworksCallback;
 
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 
 /**
@@ -33,6 +34,8 @@ public class ONSConfigInput {
     private static final String TAG = "ONSConfigInput";
     private static final boolean DBG = true;
     private ArrayList<AvailableNetworkInfo> mAvailableNetworkInfos;
+    /* order independent fingerprint of mAvailableNetworkInfos, see fingerprint() */
+    private long mFingerprint;
     private int mPreferredDataSub;
     private int mPrimarySub;
     private IUpdateAvailableNetworksCallback mAvailableNetworkCallback;
@@ -40,6 +43,7 @@ public class ONSConfigInput {
     ONSConfigInput(ArrayList<AvailableNetworkInfo> availableNetworkInfos,
             IUpdateAvailableNetworksCallback callback) {
         mAvailableNetworkInfos = availableNetworkInfos;
+        mFingerprint = fingerprint(availableNetworkInfos);
         mPreferredDataSub = SubscriptionManager.INVALID_SUBSCRIPTION_ID;
         mPrimarySub = SubscriptionManager.INVALID_SUBSCRIPTION_ID;
         mAvailableNetworkCallback = callback;
@@ -51,6 +55,7 @@ public class ONSConfigInput {
 
     public void setAvailableNetworkInfo(ArrayList<AvailableNetworkInfo> availableNetworkInfos) {
         mAvailableNetworkInfos = availableNetworkInfos;
+        mFingerprint = fingerprint(availableNetworkInfos);
     }
 
     public void setPreferredDataSub(int preferredDataSub) {
@@ -73,6 +78,67 @@ public class ONSConfigInput {
         return mAvailableNetworkInfos;
     }
 
+    public long getFingerprint() {
+        return mFingerprint;
+    }
+
+    /**
+     * check whether the available networks are the same as the given ones, in any order.
+     * The fingerprints are compared first, the lists only when the fingerprints match.
+     * @param availableNetworkInfos available networks to compare with, may be null.
+     * @param fingerprint fingerprint of availableNetworkInfos.
+     */
+    public boolean hasSameAvailableNetworks(List<AvailableNetworkInfo> availableNetworkInfos,
+            long fingerprint) {
+        if (mAvailableNetworkInfos == null || availableNetworkInfos == null
+                || mFingerprint != fingerprint
+                || mAvailableNetworkInfos.size() != availableNetworkInfos.size()) {
+            return false;
+        }
+        return new HashSet<>(mAvailableNetworkInfos).equals(new HashSet<>(availableNetworkInfos));
+    }
+
+    /**
+     * 64 bit fingerprint of a list of available networks. Each network is hashed consistently
+     * with AvailableNetworkInfo#equals and the hashes are summed, so that the fingerprint does
+     * not depend on the order of the list.
+     */
+    static long fingerprint(List<AvailableNetworkInfo> availableNetworkInfos) {
+        if (availableNetworkInfos == null) {
+            return 0;
+        }
+        long fingerprint = availableNetworkInfos.size();
+        for (AvailableNetworkInfo availableNetworkInfo : availableNetworkInfos) {
+            fingerprint += mix(hash(availableNetworkInfo));
+        }
+        return fingerprint;
+    }
+
+    private static long hash(AvailableNetworkInfo availableNetworkInfo) {
+        long hash = availableNetworkInfo.getSubId();
+        hash = 31 * hash + availableNetworkInfo.getPriority();
+        List<String> mccMncs = availableNetworkInfo.getMccMncs();
+        if (mccMncs != null) {
+            for (String mccMnc : mccMncs) {
+                hash = 31 * hash + (mccMnc == null ? 0 : mccMnc.hashCode());
+            }
+        }
+        List<Integer> bands = availableNetworkInfo.getBands();
+        if (bands != null) {
+            for (Integer band : bands) {
+                hash = 31 * hash + (band == null ? 0 : band);
+            }
+        }
+        return 31 * hash + availableNetworkInfo.getRadioAccessSpecifiers().hashCode();
+    }
+
+    /* 64 bit finalizer of SplitMix64, spreads the element hashes before they are summed */
+    private static long mix(long hash) {
+        hash = (hash ^ (hash >>> 30)) * 0xbf58476d1ce4e5b9L;
+        hash = (hash ^ (hash >>> 27)) * 0x94d049bb133111ebL;
+        return hash ^ (hash >>> 31);
+    }
+
     @Override
     public String toString() {
         return ("ONSConfigInput:"
@@ -0,0 +1,56 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ons;
+
+import android.os.HandlerThread;
+import android.os.Looper;
+
+/**
+ * Serial event loop shared by OpportunisticNetworkService, ONSProfileSelector and
+ * ONSNetworkScanCtlr. A scan, select and switch flow runs on this one thread without thread
+ * hops, and state owned by the components is confined to it instead of being locked.
+ * The looper logs messages delivered late or dispatched slowly, which makes it the place to
+ * look at queueing delay.
+ */
+class ONSEventLoop {
+    private static final String THREAD_NAME = "ONSEventLoop";
+    /* log a message whose handling took longer than this */
+    private static final long SLOW_DISPATCH_THRESHOLD_MS = 100;
+    /* log a message delivered later than this after its due time */
+    private static final long SLOW_DELIVERY_THRESHOLD_MS = 200;
+
+    private final HandlerThread mThread;
+
+    ONSEventLoop() {
+        mThread = new HandlerThread(THREAD_NAME);
+        mThread.start();
+        mThread.getLooper().setSlowLogThresholdMs(SLOW_DISPATCH_THRESHOLD_MS,
+                SLOW_DELIVERY_THRESHOLD_MS);
+    }
+
+    Looper getLooper() {
+        return mThread.getLooper();
+    }
+
+    boolean isCurrentThread() {
+        return mThread.getLooper().isCurrentThread();
+    }
+
+    void quitSafely() {
+        mThread.quitSafely();
+    }
+}
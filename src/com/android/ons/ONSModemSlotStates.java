@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ons;
+
+import android.util.SparseIntArray;
+
+/**
+ * Desired versus actual modem stack state per SIM slot.
+ * The actual state changes behind the profile selector on radio restarts, airplane mode and
+ * other callers of TelephonyManager#enableModemForSlot, so it is read back from
+ * TelephonyManager#isModemEnabledForSlot before every decision rather than learnt from the
+ * commands issued. A radio command is only needed for slots whose desired state differs from
+ * the actual one.
+ * Not thread safe, the profile selector handler serializes access.
+ */
+final class ONSModemSlotStates {
+    private static final int STATE_UNKNOWN = 0;
+    private static final int STATE_ENABLED = 1;
+    private static final int STATE_DISABLED = 2;
+
+    private final SparseIntArray mDesiredStates = new SparseIntArray();
+    private final SparseIntArray mActualStates = new SparseIntArray();
+
+    private static int toState(boolean enable) {
+        return enable ? STATE_ENABLED : STATE_DISABLED;
+    }
+
+    /**
+     * record the actual state of a slot as reported by the modem.
+     */
+    void onActualState(int slotIndex, boolean enabled) {
+        mActualStates.put(slotIndex, toState(enabled));
+    }
+
+    /**
+     * record the desired state of a slot
+     * @return true if a radio command is needed to reach it.
+     */
+    boolean setDesired(int slotIndex, boolean enable) {
+        int state = toState(enable);
+        mDesiredStates.put(slotIndex, state);
+        return mActualStates.get(slotIndex, STATE_UNKNOWN) != state;
+    }
+
+    /**
+     * account for the result of a radio command. A failed command leaves the slot unknown.
+     */
+    void onCommandComplete(int slotIndex, boolean enable, boolean success) {
+        if (!success) {
+            mActualStates.delete(slotIndex);
+            return;
+        }
+        mActualStates.put(slotIndex, toState(enable));
+    }
+
+    @Override
+    public String toString() {
+        return "ONSModemSlotStates: desired " + mDesiredStates + " actual " + mActualStates;
+    }
+}
@@ -19,31 +19,32 @@ package com.android.ons;
 import android.content.Context;
 import android.os.Handler;
 import android.os.HandlerThread;
+import android.os.Looper;
 import android.os.Message;
-import android.os.PersistableBundle;
 import android.telephony.AccessNetworkConstants;
 import android.telephony.AvailableNetworkInfo;
-import android.telephony.CarrierConfigManager;
 import android.telephony.CellInfo;
 import android.telephony.CellInfoLte;
 import android.telephony.CellInfoNr;
+import android.telephony.CellLocation;
 import android.telephony.CellSignalStrengthNr;
 import android.telephony.NetworkScan;
 import android.telephony.NetworkScanRequest;
 import android.telephony.RadioAccessSpecifier;
+import android.telephony.TelephonyCallback;
 import android.telephony.TelephonyManager;
 import android.telephony.TelephonyScanManager;
-import android.util.ArraySet;
+import android.util.SparseBooleanArray;
 
 import com.android.internal.annotations.VisibleForTesting;
 import com.android.telephony.Rlog;
 
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.stream.Collectors;
 import java.util.List;
-import java.util.Set;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Network Scan controller class which will scan for the specific bands as requested and
@@ -52,17 +53,19 @@ import java.util.concurrent.TimeUnit;
 public class ONSNetworkScanCtlr {
     private static final String LOG_TAG = "ONSNetworkScanCtlr";
     private static final boolean DBG = true;
-    private static final int SEARCH_PERIODICITY_SLOW = (int) TimeUnit.MINUTES.toSeconds(5);
-    private static final int SEARCH_PERIODICITY_FAST = (int) TimeUnit.MINUTES.toSeconds(1);
     private static final int MAX_SEARCH_TIME = (int) TimeUnit.MINUTES.toSeconds(1);
-    private static final int SCAN_RESTART_TIME = (int) TimeUnit.MINUTES.toMillis(1);
+    @VisibleForTesting
+    static final long DEFAULT_AGGREGATION_WINDOW_MS = TimeUnit.SECONDS.toMillis(10);
     private final Object mLock = new Object();
 
     /* message  to handle scan responses from modem */
     private static final int MSG_SCAN_RESULTS_AVAILABLE = 1;
     private static final int MSG_SCAN_COMPLETE = 2;
     private static final int MSG_SCAN_ERROR = 3;
+    private static final int MSG_SCAN_RESTART = 4;
+    private static final int MSG_AGGREGATION_WINDOW_EXPIRED = 5;
 
+    /* overrides the carrier config 4G scan flag if set */
     private Boolean mIs4gScanEnabled = null;
 
     @VisibleForTesting
@@ -80,49 +83,173 @@ public class ONSNetworkScanCtlr {
                 AccessNetworkConstants.EutranBand.BAND_71},
         null);
 
-    /* scan object to keep track of current scan request */
-    private NetworkScan mCurrentScan;
-    private boolean mIsScanActive;
-    private NetworkScanRequest mCurrentScanRequest;
-    private List<String> mMccMncs;
+    /* current scan state, replaced as a whole with compare-and-set */
+    private final AtomicReference<ScanState> mScanState =
+            new AtomicReference<ScanState>(ScanState.IDLE);
+    /* generation of the last created session */
+    private final AtomicInteger mScanGeneration = new AtomicInteger();
+    private final ONSScanRequestBuilder mScanRequestBuilder =
+            new ONSScanRequestBuilder(MAX_SEARCH_TIME);
     private TelephonyManager mTelephonyManager;
-    private CarrierConfigManager configManager;
-    private int mRsrpEntryThreshold;
-    private int mSsRsrpEntryThreshold;
+    private ONSCarrierConfigCache mCarrierConfigCache;
+    /* partial results of the current scan cycle, only accessed on the handler thread */
+    private final ONSScanResultAggregator mAggregator = new ONSScanResultAggregator();
+    /* overrides the carrier config aggregation window if set */
+    private Long mAggregationWindowMs = null;
+    /* whether the current scan cycle reported any network, only accessed on the handler thread */
+    private boolean mCycleHadResults;
+    /* interval between scan cycles, guarded by mLock. No binder call is made with mLock held. */
+    private final ONSScanScheduler mScanScheduler = new ONSScanScheduler();
+    /* only accessed on the handler thread */
+    private ServingCellListener mServingCellListener;
     @VisibleForTesting
     protected NetworkAvailableCallBack mNetworkAvailableCallBack;
     HandlerThread mThread;
     private Handler mHandler;
 
+    /* callback of the most recently started session */
     @VisibleForTesting
-    public TelephonyScanManager.NetworkScanCallback mNetworkScanCallback =
-            new TelephonyScanManager.NetworkScanCallback() {
+    public volatile TelephonyScanManager.NetworkScanCallback mNetworkScanCallback;
 
-        @Override
-        public void onResults(List<CellInfo> results) {
-            logDebug("Total results :" + results.size());
-            for (CellInfo cellInfo : results) {
-                logDebug("cell info: " + cellInfo);
+    /**
+     * A single modem scan. Each requestNetworkScan gets its own session with a new generation
+     * and its own callback. Messages are tagged with the generation so that late callbacks of
+     * a stopped or replaced scan are dropped before they are analyzed.
+     */
+    private class ScanSession {
+        final int mGeneration;
+        /* set once the modem accepted the request, the request is made without any lock held */
+        private volatile NetworkScan mNetworkScan;
+        private volatile boolean mStopRequested;
+        private final AtomicBoolean mStopIssued = new AtomicBoolean();
+
+        final TelephonyScanManager.NetworkScanCallback mCallback =
+                new TelephonyScanManager.NetworkScanCallback() {
+            @Override
+            public void onResults(List<CellInfo> results) {
+                logDebug("Total results :" + results.size() + " generation " + mGeneration);
+                for (CellInfo cellInfo : results) {
+                    logDebug("cell info: " + cellInfo);
+                }
+
+                Message message = Message.obtain(mHandler, MSG_SCAN_RESULTS_AVAILABLE,
+                        mGeneration, 0, results);
+                message.sendToTarget();
+            }
+
+            @Override
+            public void onComplete() {
+                logDebug("Scan completed! generation " + mGeneration);
+                Message message = Message.obtain(mHandler, MSG_SCAN_COMPLETE, mGeneration, 0,
+                        NetworkScan.SUCCESS);
+                message.sendToTarget();
             }
 
-            Message message = Message.obtain(mHandler, MSG_SCAN_RESULTS_AVAILABLE, results);
-            message.sendToTarget();
+            @Override
+            public void onError(@NetworkScan.ScanErrorCode int error) {
+                logDebug("Scan error " + error + " generation " + mGeneration);
+                Message message = Message.obtain(mHandler, MSG_SCAN_ERROR, mGeneration, 0,
+                        error);
+                message.sendToTarget();
+            }
+        };
+
+        ScanSession(int generation) {
+            mGeneration = generation;
         }
 
-        @Override
-        public void onComplete() {
-            logDebug("Scan completed!");
-            Message message = Message.obtain(mHandler, MSG_SCAN_COMPLETE, NetworkScan.SUCCESS);
-            mHandler.sendMessageDelayed(message, SCAN_RESTART_TIME);
+        /* attach the modem scan. A stop requested while the request was in flight applies. */
+        void attach(NetworkScan networkScan) {
+            mNetworkScan = networkScan;
+            if (mStopRequested) {
+                stopModemScan();
+            }
+        }
+
+        void stop() {
+            mStopRequested = true;
+            stopModemScan();
         }
 
+        /* attach and stop may race, both check the other's flag and stopScan is issued once */
+        private void stopModemScan() {
+            NetworkScan networkScan = mNetworkScan;
+            if (networkScan == null || !mStopIssued.compareAndSet(false, true)) {
+                return;
+            }
+            try {
+                networkScan.stopScan();
+            } catch (IllegalArgumentException iae) {
+                logDebug("Scan failed with exception " + iae);
+            }
+        }
+    }
+
+    /**
+     * Immutable scan state. Every transition builds a new instance and publishes it with
+     * compare-and-set, the modem is only called once the transition won.
+     */
+    private static final class ScanState {
+        static final ScanState IDLE = new ScanState(null, null, null, null, null);
+
+        /* session of the current modem scan, null if none */
+        final ScanSession mSession;
+        final NetworkScanRequest mScanRequest;
+        final ONSScanCoverage mCoverage;
+        /* latest requested scan, may be narrower than the running one. Its PLMNs filter the
+           results. */
+        final ONSScanRequestBuilder.ScanRequestInfo mRequested;
+        /* carrier config snapshot of the latest request */
+        final ONSCarrierConfig mCarrierConfig;
+
+        ScanState(ScanSession session, NetworkScanRequest scanRequest, ONSScanCoverage coverage,
+                ONSScanRequestBuilder.ScanRequestInfo requested, ONSCarrierConfig carrierConfig) {
+            mSession = session;
+            mScanRequest = scanRequest;
+            mCoverage = coverage;
+            mRequested = requested;
+            mCarrierConfig = carrierConfig;
+        }
+
+        boolean isActive() {
+            return mSession != null;
+        }
+
+        boolean isCurrent(int generation) {
+            return mSession != null && mSession.mGeneration == generation;
+        }
+
+        /* keep the running scan, only the result filter and the next cycle change */
+        ScanState withRequested(ONSScanRequestBuilder.ScanRequestInfo requested,
+                ONSCarrierConfig carrierConfig) {
+            return new ScanState(mSession, mScanRequest, mCoverage, requested, carrierConfig);
+        }
+
+        /* next scan cycle, scans for the latest requested networks */
+        ScanState restarted(ScanSession session) {
+            return new ScanState(session, mRequested.mNetworkScanRequest, mRequested.mCoverage,
+                    mRequested, mCarrierConfig);
+        }
+    }
+
+    /**
+     * Serving cell listener used to tighten the scan interval when the device moves.
+     * Callbacks are delivered on the handler thread.
+     */
+    private class ServingCellListener extends TelephonyCallback
+            implements TelephonyCallback.CellLocationListener {
+        private CellLocation mLastCellLocation;
+
         @Override
-        public void onError(@NetworkScan.ScanErrorCode int error) {
-            logDebug("Scan error " + error);
-            Message message = Message.obtain(mHandler, MSG_SCAN_ERROR, error);
-            message.sendToTarget();
+        public void onCellLocationChanged(CellLocation location) {
+            /* the first callback reports the current serving cell right after registration */
+            boolean changed = mLastCellLocation != null && !mLastCellLocation.equals(location);
+            mLastCellLocation = location;
+            if (changed) {
+                onServingCellChanged();
+            }
         }
-    };
+    }
 
     /**
      * call back for network availability
@@ -130,7 +257,8 @@ public class ONSNetworkScanCtlr {
     public interface NetworkAvailableCallBack {
 
         /**
-         * Returns the scan results to the user, this callback will be called multiple times.
+         * Returns the scan results to the user, this callback will be called at most once per
+         * scan cycle with the results aggregated over that cycle.
          */
         void onNetworkAvailability(List<CellInfo> results);
 
@@ -141,32 +269,53 @@ public class ONSNetworkScanCtlr {
         void onError(int error);
     }
 
-    private PersistableBundle getConfigBundle() {
-        if (configManager != null) {
-            // If an invalid subId is used, this bundle will contain default values.
-            return configManager.getConfig();
+    /**
+     * merge a partial batch of scan results into the current scan cycle. Results are reported
+     * once the cycle completes or the aggregation window closes, whichever comes first.
+     * @param results partial results reported by the modem.
+     */
+    private void aggregateScanResults(List<CellInfo> results) {
+        ScanState state = mScanState.get();
+        if (!state.isActive() || results == null) {
+            return;
+        }
+        SparseBooleanArray plmns = state.mRequested.mPlmns;
+        for (CellInfo cellInfo : results) {
+            if (plmns.get(ONSPlmn.fromCellInfo(cellInfo))) {
+                mAggregator.merge(cellInfo);
+            }
+        }
+        logDebug("aggregated cells: " + mAggregator.size());
+        if (!mAggregator.isEmpty() && !mHandler.hasMessages(MSG_AGGREGATION_WINDOW_EXPIRED)) {
+            mHandler.sendEmptyMessageDelayed(MSG_AGGREGATION_WINDOW_EXPIRED,
+                    getAggregationWindowMs(state.mCarrierConfig));
         }
-        return null;
     }
 
-    private int getIntCarrierConfig(String key) {
-        PersistableBundle b = getConfigBundle();
-        if (b != null) {
-            return b.getInt(key);
-        } else {
-            // Return static default defined in CarrierConfigManager.
-            return CarrierConfigManager.getDefaultConfig().getInt(key);
+    /* report the results aggregated so far and start a new aggregation window */
+    private void flushAggregatedResults() {
+        mHandler.removeMessages(MSG_AGGREGATION_WINDOW_EXPIRED);
+        if (mAggregator.isEmpty()) {
+            return;
         }
+        analyzeScanResults(mAggregator.drain());
+    }
+
+    private void clearAggregatedResults() {
+        mHandler.removeMessages(MSG_AGGREGATION_WINDOW_EXPIRED);
+        mAggregator.clear();
     }
 
-    private boolean getBooleanCarrierConfig(String key) {
-        PersistableBundle b = getConfigBundle();
-        if (b != null) {
-            return b.getBoolean(key);
-        } else {
-            // Return static default defined in CarrierConfigManager.
-            return CarrierConfigManager.getDefaultConfig().getBoolean(key);
+    private long getAggregationWindowMs(ONSCarrierConfig config) {
+        if (mAggregationWindowMs != null) {
+            return mAggregationWindowMs;
         }
+        return config.mScanAggregationWindowMs;
+    }
+
+    @VisibleForTesting
+    void setAggregationWindowMs(long windowMs) {
+        mAggregationWindowMs = windowMs;
     }
 
     /**
@@ -175,48 +324,53 @@ public class ONSNetworkScanCtlr {
      */
     public void analyzeScanResults(List<CellInfo> results) {
         /* Inform registrants about availability of network */
-        if (!mIsScanActive || results == null) {
+        ScanState state = mScanState.get();
+        if (!state.isActive() || results == null) {
           return;
         }
         List<CellInfo> filteredResults = new ArrayList<CellInfo>();
-        mIs4gScanEnabled = getIs4gScanEnabled();
-        synchronized (mLock) {
-            for (CellInfo cellInfo : results) {
-                if (mMccMncs.contains(getMccMnc(cellInfo))) {
-                    if (cellInfo instanceof CellInfoNr) {
-                        CellInfoNr nrCellInfo = (CellInfoNr) cellInfo;
-                        int ssRsrp = ((CellSignalStrengthNr) nrCellInfo.getCellSignalStrength())
-                                .getSsRsrp();
-                        logDebug("cell info ssRsrp: " + ssRsrp);
-                        if (ssRsrp >= mSsRsrpEntryThreshold) {
-                            filteredResults.add(cellInfo);
-                        }
+        SparseBooleanArray plmns = state.mRequested.mPlmns;
+        /* pick up a carrier config change that happened while scanning */
+        ONSCarrierConfig config = mCarrierConfigCache.get(state.mCarrierConfig.mSubId);
+        boolean is4gScanEnabled = getIs4gScanEnabled(config);
+        for (CellInfo cellInfo : results) {
+            if (plmns.get(ONSPlmn.fromCellInfo(cellInfo))) {
+                if (cellInfo instanceof CellInfoNr) {
+                    CellInfoNr nrCellInfo = (CellInfoNr) cellInfo;
+                    int ssRsrp = ((CellSignalStrengthNr) nrCellInfo.getCellSignalStrength())
+                            .getSsRsrp();
+                    logDebug("cell info ssRsrp: " + ssRsrp);
+                    if (ssRsrp >= config.mSsRsrpEntryThreshold) {
+                        filteredResults.add(cellInfo);
                     }
-                    if (mIs4gScanEnabled && cellInfo instanceof CellInfoLte) {
-                        int rsrp = ((CellInfoLte) cellInfo).getCellSignalStrength().getRsrp();
-                        logDebug("cell info rsrp: " + rsrp);
-                        if (rsrp >= mRsrpEntryThreshold) {
-                            filteredResults.add(cellInfo);
-                        }
+                }
+                if (is4gScanEnabled && cellInfo instanceof CellInfoLte) {
+                    int rsrp = ((CellInfoLte) cellInfo).getCellSignalStrength().getRsrp();
+                    logDebug("cell info rsrp: " + rsrp);
+                    if (rsrp >= config.mRsrpEntryThreshold) {
+                        filteredResults.add(cellInfo);
                     }
                 }
             }
         }
+        if (filteredResults.size() >= 1) {
+            mCycleHadResults = true;
+        }
         if ((filteredResults.size() >= 1) && (mNetworkAvailableCallBack != null)) {
-            /* Todo: change to aggregate results on success. */
             mNetworkAvailableCallBack.onNetworkAvailability(filteredResults);
         }
     }
 
-    private void invalidateScanOnError(int error) {
+    private void invalidateScanOnError(int generation, int error) {
         logDebug("scan invalidated on error");
         if (mNetworkAvailableCallBack != null) {
             mNetworkAvailableCallBack.onError(error);
         }
 
-        synchronized (mLock) {
-            mIsScanActive = false;
-            mCurrentScan = null;
+        /* the modem already ended the scan, a newer scan started meanwhile is kept */
+        ScanState state = mScanState.get();
+        if (state.isCurrent(generation)) {
+            mScanState.compareAndSet(state, ScanState.IDLE);
         }
     }
 
@@ -225,6 +379,15 @@ public class ONSNetworkScanCtlr {
         init(c, telephonyManager, networkAvailableCallBack);
     }
 
+    /**
+     * @param looper looper of the event loop shared with the caller. Callbacks are invoked on
+     *               it.
+     */
+    public ONSNetworkScanCtlr(Context c, TelephonyManager telephonyManager, Looper looper,
+            NetworkAvailableCallBack networkAvailableCallBack) {
+        init(c, telephonyManager, looper, networkAvailableCallBack);
+    }
+
     /**
      * initialize Network Scan controller
      * @param c context
@@ -233,25 +396,50 @@ public class ONSNetworkScanCtlr {
      */
     public void init(Context context, TelephonyManager telephonyManager,
             NetworkAvailableCallBack networkAvailableCallBack) {
-        log("init called");
         mThread = new HandlerThread(LOG_TAG);
         mThread.start();
-        mHandler =  new Handler(mThread.getLooper()) {
+        init(context, telephonyManager, mThread.getLooper(), networkAvailableCallBack);
+    }
+
+    /**
+     * initialize Network Scan controller on the given looper
+     * @param c context
+     * @param telephonyManager Telephony manager instance
+     * @param looper looper the controller runs on
+     * @param networkAvailableCallBack callback to be called when network selection is done
+     */
+    public void init(Context context, TelephonyManager telephonyManager, Looper looper,
+            NetworkAvailableCallBack networkAvailableCallBack) {
+        log("init called");
+        mHandler =  new Handler(looper) {
             @Override
             public void handleMessage(Message msg) {
+                if (isStaleSessionMessage(msg)) {
+                    logDebug("dropping msg " + msg.what + " of stale generation " + msg.arg1);
+                    return;
+                }
                 switch (msg.what) {
                     case MSG_SCAN_RESULTS_AVAILABLE:
                         logDebug("Msg received for scan results");
-                        /* Todo: need to aggregate the results */
-                        analyzeScanResults((List<CellInfo>) msg.obj);
+                        aggregateScanResults((List<CellInfo>) msg.obj);
+                        break;
+                    case MSG_AGGREGATION_WINDOW_EXPIRED:
+                        logDebug("Msg received for aggregation window expiry");
+                        flushAggregatedResults();
                         break;
                     case MSG_SCAN_COMPLETE:
                         logDebug("Msg received for scan complete");
+                        flushAggregatedResults();
+                        scheduleNextScan();
+                        break;
+                    case MSG_SCAN_RESTART:
+                        logDebug("Msg received for scan restart");
                         restartScan();
                         break;
                     case MSG_SCAN_ERROR:
                         logDebug("Msg received for scan error");
-                        invalidateScanOnError((int) msg.obj);
+                        clearAggregatedResults();
+                        invalidateScanOnError(msg.arg1, (int) msg.obj);
                         break;
                     default:
                         log("invalid message");
@@ -261,27 +449,115 @@ public class ONSNetworkScanCtlr {
         };
         mTelephonyManager = telephonyManager;
         mNetworkAvailableCallBack = networkAvailableCallBack;
-        configManager = (CarrierConfigManager) context.getSystemService(
-                Context.CARRIER_CONFIG_SERVICE);
+        mCarrierConfigCache = new ONSCarrierConfigCache(context, mHandler);
+    }
+
+    /* scan messages carry the generation of their session, only the current one counts */
+    private boolean isStaleSessionMessage(Message msg) {
+        switch (msg.what) {
+            case MSG_SCAN_RESULTS_AVAILABLE:
+            case MSG_SCAN_COMPLETE:
+            case MSG_SCAN_ERROR:
+            case MSG_SCAN_RESTART:
+                return !mScanState.get().isCurrent(msg.arg1);
+            default:
+                return false;
+        }
+    }
+
+    private ScanSession newScanSession() {
+        return new ScanSession(mScanGeneration.incrementAndGet());
     }
 
-    /* get mcc mnc from cell info if the cell is for LTE */
-    private String getMccMnc(CellInfo cellInfo) {
-        if (cellInfo instanceof CellInfoLte) {
-            return ((CellInfoLte) cellInfo).getCellIdentity().getMccString()
-                    + ((CellInfoLte) cellInfo).getCellIdentity().getMncString();
+    /* request the modem scan of a session whose state has been published */
+    private void requestNetworkScan(ScanSession session, NetworkScanRequest networkScanRequest) {
+        mNetworkScanCallback = session.mCallback;
+        session.attach(mTelephonyManager.requestNetworkScan(networkScanRequest,
+                session.mCallback));
+    }
+
+    /* stop the modem scan of a state that has been replaced */
+    private void stopScanOf(ScanState replaced) {
+        if (!replaced.isActive()) {
+            return;
         }
+        replaced.mSession.stop();
+        /* pending messages of the stopped session are dropped from here on */
+        mHandler.removeMessages(MSG_SCAN_RESTART);
+        /* partial results of the stopped scan must not leak into the next one */
+        mHandler.post(() -> clearAggregatedResults());
+    }
 
-        return null;
+    /* schedule the next scan cycle according to the outcome of the completed one */
+    private void scheduleNextScan() {
+        long delayMs;
+        int generation;
+        boolean cycleHadResults = mCycleHadResults;
+        mCycleHadResults = false;
+        ScanState state = mScanState.get();
+        if (!state.isActive()) {
+            return;
+        }
+        generation = state.mSession.mGeneration;
+        synchronized (mLock) {
+            mScanScheduler.onCycleComplete(cycleHadResults);
+            delayMs = mScanScheduler.getNextScanDelayMs();
+            logDebug("scheduleNextScan " + mScanScheduler);
+        }
+        mHandler.sendMessageDelayed(mHandler.obtainMessage(MSG_SCAN_RESTART, generation, 0),
+                delayMs);
     }
 
-    private boolean getIs4gScanEnabled() {
-        // TODO: make this a null check
+    private void onServingCellChanged() {
+        long delayMs;
+        ScanState state = mScanState.get();
+        if (!state.isActive()) {
+            return;
+        }
+        int generation = state.mSession.mGeneration;
+        synchronized (mLock) {
+            if (!mScanScheduler.onServingCellChanged()) {
+                return;
+            }
+            delayMs = mScanScheduler.getNextScanDelayMs();
+        }
+        /* pull in a restart that was scheduled with a widened interval */
+        if (mHandler.hasMessages(MSG_SCAN_RESTART)) {
+            logDebug("serving cell changed, rescheduling scan in " + delayMs + "ms");
+            mHandler.removeMessages(MSG_SCAN_RESTART);
+            mHandler.sendMessageDelayed(mHandler.obtainMessage(MSG_SCAN_RESTART, generation, 0),
+                    delayMs);
+        }
+    }
+
+    private void registerServingCellListener() {
+        if (mServingCellListener != null) {
+            return;
+        }
+        mServingCellListener = new ServingCellListener();
+        mTelephonyManager.registerTelephonyCallback(mHandler::post, mServingCellListener);
+    }
+
+    private void unregisterServingCellListener() {
+        if (mServingCellListener == null) {
+            return;
+        }
+        mTelephonyManager.unregisterTelephonyCallback(mServingCellListener);
+        mServingCellListener = null;
+    }
+
+    /**
+     * @return the carrier config snapshot of the default subscription.
+     */
+    public ONSCarrierConfig getCarrierConfig() {
+        return mCarrierConfigCache.getForDefaultSubscription();
+    }
+
+    private boolean getIs4gScanEnabled(ONSCarrierConfig config) {
         if (mIs4gScanEnabled != null) {
             return mIs4gScanEnabled;
         }
-        return getBooleanCarrierConfig(
-                CarrierConfigManager.KEY_ENABLE_4G_OPPORTUNISTIC_NETWORK_SCAN_BOOL);
+        return config.mIs4gScanEnabled;
     }
 
     @VisibleForTesting
@@ -292,74 +568,15 @@ public class ONSNetworkScanCtlr {
     @VisibleForTesting
     NetworkScanRequest createNetworkScanRequest(ArrayList<AvailableNetworkInfo> availableNetworks,
         int periodicity) {
-        RadioAccessSpecifier[] ras;
-        ArrayList<String> mccMncs = new ArrayList<String>();
-        Set<Integer> bandSet5G = new ArraySet<>();
-        Set<Integer> bandSet4G = new ArraySet<>();
-
-        mIs4gScanEnabled = getIs4gScanEnabled();
-
-        /* retrieve mcc mncs and bands for available networks */
-        for (AvailableNetworkInfo availableNetwork : availableNetworks) {
-            mccMncs.addAll(availableNetwork.getMccMncs());
-            List<RadioAccessSpecifier> radioAccessSpecifiers =
-                    availableNetwork.getRadioAccessSpecifiers();
-            if (radioAccessSpecifiers.isEmpty()) {
-                if (mIs4gScanEnabled) {
-                    bandSet4G.addAll(availableNetwork.getBands());
-                }
-                bandSet5G.addAll(availableNetwork.getBands());
-            } else {
-                for (RadioAccessSpecifier radioAccessSpecifier : radioAccessSpecifiers) {
-                    int radioAccessNetworkType = radioAccessSpecifier.getRadioAccessNetwork();
-                    if (mIs4gScanEnabled &&
-                            radioAccessNetworkType ==
-                                    AccessNetworkConstants.AccessNetworkType.EUTRAN) {
-                        bandSet4G.addAll(Arrays.stream(radioAccessSpecifier.getBands())
-                                .boxed().collect(Collectors.toList()));
-                    } else if (radioAccessNetworkType ==
-                            AccessNetworkConstants.AccessNetworkType.NGRAN) {
-                        bandSet5G.addAll(Arrays.stream(radioAccessSpecifier.getBands())
-                                .boxed().collect(Collectors.toList()));
-                    }
-                }
-            }
-        }
-
-        int rasSize = 1;
-        if (mIs4gScanEnabled && bandSet4G.isEmpty() == bandSet5G.isEmpty()) {
-            rasSize = 2;
-        }
-        ras = new RadioAccessSpecifier[rasSize];
-
-        if (bandSet4G.isEmpty() && bandSet5G.isEmpty()) {
-            // Set the default RadioAccessSpecifiers if none were set and no bands were set.
-            ras[0] = DEFAULT_5G_RAS;
-            if (mIs4gScanEnabled) {
-                ras[1] = DEFAULT_4G_RAS;
-            }
-        } else {
-            if (mIs4gScanEnabled && !bandSet4G.isEmpty()) {
-                ras[0] = new RadioAccessSpecifier(AccessNetworkConstants.AccessNetworkType.EUTRAN,
-                        bandSet4G.stream().mapToInt(band->band).toArray(), null);
-            }
-            if (!bandSet5G.isEmpty()) {
-                ras[rasSize - 1] = new RadioAccessSpecifier(
-                        AccessNetworkConstants.AccessNetworkType.NGRAN,
-                        bandSet5G.stream().mapToInt(band->band).toArray(), null);
-            } else if (!mIs4gScanEnabled) {
-                // Reached if only 4G was specified but 4G scan is disabled.
-                ras[0] = DEFAULT_5G_RAS;
-            }
-        }
+        ONSCarrierConfig config = mCarrierConfigCache.getForDefaultSubscription();
+        return getScanRequestInfo(availableNetworks, config, periodicity).mNetworkScanRequest;
+    }
 
-        NetworkScanRequest networkScanRequest = new NetworkScanRequest(
-            NetworkScanRequest.SCAN_TYPE_PERIODIC, ras, periodicity, MAX_SEARCH_TIME, false,
-            NetworkScanRequest.MAX_INCREMENTAL_PERIODICITY_SEC, mccMncs);
-        synchronized (mLock) {
-            mMccMncs = mccMncs;
-        }
-        return networkScanRequest;
+    private ONSScanRequestBuilder.ScanRequestInfo getScanRequestInfo(
+            ArrayList<AvailableNetworkInfo> availableNetworks, ONSCarrierConfig config,
+            int periodicity) {
+        return mScanRequestBuilder.build(availableNetworks, getIs4gScanEnabled(config),
+                periodicity);
     }
 
     /**
@@ -368,54 +585,71 @@ public class ONSNetworkScanCtlr {
      * @return true if successfully accepted request.
      */
     public boolean startFastNetworkScan(ArrayList<AvailableNetworkInfo> availableNetworks) {
-        NetworkScanRequest networkScanRequest = createNetworkScanRequest(availableNetworks,
-                SEARCH_PERIODICITY_FAST);
-        return startNetworkScan(networkScanRequest);
+        ONSCarrierConfig config = mCarrierConfigCache.getForDefaultSubscription();
+        int periodicity;
+        synchronized (mLock) {
+            mScanScheduler.updateBounds(config);
+            periodicity = Math.min(mScanScheduler.getMinIntervalSec(),
+                    NetworkScanRequest.MAX_SEARCH_PERIODICITY_SEC);
+        }
+        return startNetworkScan(getScanRequestInfo(availableNetworks, config, periodicity),
+                config);
     }
 
 
-    private boolean startNetworkScan(NetworkScanRequest networkScanRequest) {
-        NetworkScan networkScan;
-        synchronized (mLock) {
-            /* if the request is same as existing one, then make sure to not proceed */
-            if (mIsScanActive && mCurrentScanRequest.equals(networkScanRequest)) {
-                return true;
+    private boolean startNetworkScan(ONSScanRequestBuilder.ScanRequestInfo scanRequestInfo,
+            ONSCarrierConfig config) {
+        NetworkScanRequest networkScanRequest = scanRequestInfo.mNetworkScanRequest;
+        while (true) {
+            ScanState current = mScanState.get();
+            /* if the running scan already covers the request, keep it and only update the
+               result filter. The next scan cycle uses the new request. */
+            if (current.isActive() && current.mCoverage.covers(scanRequestInfo.mCoverage)) {
+                if (mScanState.compareAndSet(current,
+                        current.withRequested(scanRequestInfo, config))) {
+                    logDebug("current scan covers " + scanRequestInfo.mCoverage);
+                    return true;
+                }
+                continue;
             }
 
-            /* Need to stop current scan if we already have one */
-            stopNetworkScan();
-
-            /* user lower threshold to enable modem stack */
-            mRsrpEntryThreshold =
-                getIntCarrierConfig(
-                    CarrierConfigManager.KEY_OPPORTUNISTIC_NETWORK_EXIT_THRESHOLD_RSRP_INT);
-
-            mSsRsrpEntryThreshold = getIntCarrierConfig(
-                    CarrierConfigManager.KEY_OPPORTUNISTIC_NETWORK_EXIT_THRESHOLD_SS_RSRP_INT);
+            ScanSession session = newScanSession();
+            ScanState next = new ScanState(session, networkScanRequest,
+                    scanRequestInfo.mCoverage, scanRequestInfo, config);
+            if (!mScanState.compareAndSet(current, next)) {
+                continue;
+            }
 
+            /* Need to stop current scan if we already have one */
+            stopScanOf(current);
+            /* new networks to look for, start again with the shortest interval */
+            synchronized (mLock) {
+                mScanScheduler.reset();
+            }
             /* start new scan */
-            networkScan = mTelephonyManager.requestNetworkScan(networkScanRequest,
-                    mNetworkScanCallback);
-
-            mCurrentScan = networkScan;
-            mIsScanActive = true;
-            mCurrentScanRequest = networkScanRequest;
+            requestNetworkScan(session, networkScanRequest);
+            mHandler.post(() -> registerServingCellListener());
+            logDebug("startNetworkScan " + networkScanRequest);
+            return true;
         }
-
-        logDebug("startNetworkScan " + networkScanRequest);
-        return true;
     }
 
+    /* runs on the handler thread for the current session */
     private void restartScan() {
-        NetworkScan networkScan;
         logDebug("restartScan");
-        synchronized (mLock) {
-            if (mCurrentScanRequest != null) {
-                networkScan = mTelephonyManager.requestNetworkScan(mCurrentScanRequest,
-                        mNetworkScanCallback);
-                mIsScanActive = true;
-            }
+        ScanState current = mScanState.get();
+        if (!current.isActive()) {
+            return;
         }
+        /* the completed scan is done, the next cycle is a new session. A running scan may
+           have been kept for a narrower request, that one is used now. */
+        ScanSession session = newScanSession();
+        ScanState next = current.restarted(session);
+        if (!mScanState.compareAndSet(current, next)) {
+            /* stopped or replaced meanwhile */
+            return;
+        }
+        requestNetworkScan(session, next.mScanRequest);
     }
 
     /**
@@ -423,17 +657,20 @@ public class ONSNetworkScanCtlr {
      */
     public void stopNetworkScan() {
         logDebug("stopNetworkScan");
-        synchronized (mLock) {
-            if (mIsScanActive && mCurrentScan != null) {
-                try {
-                    mCurrentScan.stopScan();
-                } catch (IllegalArgumentException iae) {
-                    logDebug("Scan failed with exception " + iae);
-                }
-                mIsScanActive = false;
-                mCurrentScan = null;
-                mCurrentScanRequest = null;
-            }
+        stopScanOf(mScanState.getAndSet(ScanState.IDLE));
+        mHandler.post(() -> unregisterServingCellListener());
+    }
+
+    /**
+     * stop the network scan and release the resources of the controller. The controller must
+     * not be used afterwards.
+     */
+    public void dispose() {
+        logDebug("dispose");
+        stopNetworkScan();
+        mCarrierConfigCache.dispose();
+        if (mThread != null) {
+            mThread.quitSafely();
         }
     }
 
@@ -0,0 +1,193 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ons;
+
+import android.os.Handler;
+import android.os.SystemClock;
+
+import com.android.internal.annotations.VisibleForTesting;
+import com.android.telephony.Rlog;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Deadlines of the operations a profile selection waits for: subscription switches, modem
+ * enables and data preference changes.
+ * Every operation is started with a fallback which runs on the handler if the operation did
+ * not complete before its timeout, so a caller never waits longer than the timeout for an
+ * answer. Operations which block the caller cannot have a fallback, only their latency is
+ * recorded. Completion latencies and timeouts are recorded per operation type.
+ * Timeouts come from carrier config, see ONSCarrierConfig.
+ */
+final class ONSOperationDeadlines {
+    private static final String LOG_TAG = "ONSOperationDeadlines";
+
+    static final int OP_SWITCH_SUBSCRIPTION = 0;
+    static final int OP_ENABLE_MODEM = 1;
+    static final int OP_SET_PREFERRED_DATA = 2;
+    private static final int OP_COUNT = 3;
+    private static final String[] OP_NAMES = {"switch", "enableModem", "setPreferredData"};
+
+    @VisibleForTesting
+    static final long DEFAULT_SWITCH_SUBSCRIPTION_TIMEOUT_MS = TimeUnit.SECONDS.toMillis(60);
+    @VisibleForTesting
+    static final long DEFAULT_ENABLE_MODEM_TIMEOUT_MS = TimeUnit.SECONDS.toMillis(10);
+    @VisibleForTesting
+    static final long DEFAULT_SET_PREFERRED_DATA_TIMEOUT_MS = TimeUnit.SECONDS.toMillis(30);
+
+    /**
+     * an operation in flight. Exactly one of complete and the fallback takes effect.
+     */
+    static final class Deadline {
+        private final int mOp;
+        private final long mStartMs;
+        private final AtomicBoolean mDone = new AtomicBoolean();
+
+        private Deadline(int op, long startMs) {
+            mOp = op;
+            mStartMs = startMs;
+        }
+    }
+
+    private final Handler mHandler;
+    private final long[] mTimeoutsMs = {DEFAULT_SWITCH_SUBSCRIPTION_TIMEOUT_MS,
+            DEFAULT_ENABLE_MODEM_TIMEOUT_MS, DEFAULT_SET_PREFERRED_DATA_TIMEOUT_MS};
+    /* statistics per operation, guarded by this */
+    private final int[] mCompletedCount = new int[OP_COUNT];
+    private final int[] mTimeoutCount = new int[OP_COUNT];
+    private final long[] mTotalLatencyMs = new long[OP_COUNT];
+    private final long[] mMaxLatencyMs = new long[OP_COUNT];
+
+    /**
+     * @param handler handler the fallbacks run on.
+     */
+    ONSOperationDeadlines(Handler handler) {
+        mHandler = handler;
+    }
+
+    synchronized void setTimeoutMs(int op, long timeoutMs) {
+        if (timeoutMs > 0) {
+            mTimeoutsMs[op] = timeoutMs;
+        }
+    }
+
+    synchronized long getTimeoutMs(int op) {
+        return mTimeoutsMs[op];
+    }
+
+    /**
+     * apply the timeouts of a carrier config snapshot
+     * @param config carrier config snapshot. If null, the current timeouts are kept.
+     */
+    void updateTimeouts(ONSCarrierConfig config) {
+        if (config == null) {
+            return;
+        }
+        setTimeoutMs(OP_SWITCH_SUBSCRIPTION, config.mSwitchSubscriptionTimeoutMs);
+        setTimeoutMs(OP_ENABLE_MODEM, config.mEnableModemTimeoutMs);
+        setTimeoutMs(OP_SET_PREFERRED_DATA, config.mSetPreferredDataTimeoutMs);
+    }
+
+    /**
+     * start an operation
+     * @param fallback run on the handler if the operation does not complete in time, may be null
+     *                 for operations which are only measured.
+     */
+    Deadline start(int op, Runnable fallback) {
+        Deadline deadline = new Deadline(op, SystemClock.elapsedRealtime());
+        mHandler.postDelayed(() -> {
+            if (!deadline.mDone.compareAndSet(false, true)) {
+                return;
+            }
+            long latencyMs = record(op, deadline.mStartMs, true);
+            Rlog.d(LOG_TAG, OP_NAMES[op] + " timed out after " + latencyMs + "ms");
+            if (fallback != null) {
+                fallback.run();
+            }
+        }, deadline, getTimeoutMs(op));
+        return deadline;
+    }
+
+    /**
+     * complete an operation, may be called from any thread.
+     * @return false if the deadline already expired and the fallback ran instead.
+     */
+    boolean complete(Deadline deadline) {
+        if (deadline == null || !deadline.mDone.compareAndSet(false, true)) {
+            return false;
+        }
+        mHandler.removeCallbacksAndMessages(deadline);
+        record(deadline.mOp, deadline.mStartMs, false);
+        return true;
+    }
+
+    /**
+     * record the latency of an operation which blocked the caller, it is reported if it
+     * overran its timeout.
+     * @param startMs elapsed realtime at which the operation started.
+     */
+    void recordLatency(int op, long startMs) {
+        long latencyMs = record(op, startMs, false);
+        if (latencyMs > getTimeoutMs(op)) {
+            Rlog.d(LOG_TAG, OP_NAMES[op] + " overran its deadline, took " + latencyMs + "ms");
+        }
+    }
+
+    /**
+     * drop an operation which is not waited for anymore, neither completion nor fallback.
+     */
+    void cancel(Deadline deadline) {
+        if (deadline != null && deadline.mDone.compareAndSet(false, true)) {
+            mHandler.removeCallbacksAndMessages(deadline);
+        }
+    }
+
+    synchronized long getMaxLatencyMs(int op) {
+        return mMaxLatencyMs[op];
+    }
+
+    synchronized int getTimeoutCount(int op) {
+        return mTimeoutCount[op];
+    }
+
+    private synchronized long record(int op, long startMs, boolean timedOut) {
+        long latencyMs = SystemClock.elapsedRealtime() - startMs;
+        if (timedOut) {
+            mTimeoutCount[op]++;
+        } else {
+            mCompletedCount[op]++;
+        }
+        mTotalLatencyMs[op] += latencyMs;
+        mMaxLatencyMs[op] = Math.max(mMaxLatencyMs[op], latencyMs);
+        return latencyMs;
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder sb = new StringBuilder("ONSOperationDeadlines:");
+        for (int op = 0; op < OP_COUNT; op++) {
+            int count = mCompletedCount[op] + mTimeoutCount[op];
+            sb.append(' ').append(OP_NAMES[op])
+                    .append(" completed ").append(mCompletedCount[op])
+                    .append(" timedOut ").append(mTimeoutCount[op])
+                    .append(" avg ").append(count == 0 ? 0 : mTotalLatencyMs[op] / count)
+                    .append("ms max ").append(mMaxLatencyMs[op]).append("ms");
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ons;
+
+import android.os.SystemClock;
+
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.util.HashMap;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cache of the carrier privilege decisions taken for the callers of the ONS binder API, keyed
+ * by the kind of check, calling uid, calling package and subscription id. A grant of one
+ * kind of check never satisfies another.
+ * Only grants are cached, a denied caller is evaluated again on every call. Grants expire
+ * after a bounded time, and the whole cache is invalidated on carrier config, subscription
+ * and package changes, which are what carrier privileges derive from. A check which was
+ * running while the cache got invalidated does not leave a grant behind.
+ * Thread safe, the binder threads share it.
+ */
+class ONSPermissionCache {
+    @VisibleForTesting
+    static final long DEFAULT_TTL_MS = TimeUnit.MINUTES.toMillis(5);
+
+    /* TelephonyPermissions#enforceCallingOrSelfCarrierPrivilege */
+    static final int CHECK_CARRIER_PRIVILEGE = 0;
+    /* SubscriptionManager#canManageSubscription on an opportunistic subscription */
+    static final int CHECK_OPPORTUNISTIC_SUB_PRIVILEGE = 1;
+
+    private static final class Key {
+        final int mCheck;
+        final int mUid;
+        final String mPackageName;
+        final int mSubId;
+
+        Key(int check, int uid, String packageName, int subId) {
+            mCheck = check;
+            mUid = uid;
+            mPackageName = packageName;
+            mSubId = subId;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(mCheck, mUid, mPackageName, mSubId);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return mCheck == other.mCheck && mUid == other.mUid && mSubId == other.mSubId
+                    && Objects.equals(mPackageName, other.mPackageName);
+        }
+    }
+
+    private final long mTtlMs;
+    /* expiry time of the grants, guarded by this */
+    private final HashMap<Key, Long> mGrants = new HashMap<>();
+    /* bumped on every invalidation, guarded by this */
+    private long mGeneration;
+    private int mHitCount;
+    private int mMissCount;
+
+    ONSPermissionCache() {
+        this(DEFAULT_TTL_MS);
+    }
+
+    @VisibleForTesting
+    ONSPermissionCache(long ttlMs) {
+        mTtlMs = ttlMs;
+    }
+
+    /**
+     * @return true if the caller passed the check on the subscription and the grant did not
+     * expire or get invalidated since.
+     */
+    synchronized boolean isGranted(int check, int uid, String packageName, int subId) {
+        Key key = new Key(check, uid, packageName, subId);
+        Long expiry = mGrants.get(key);
+        if (expiry != null && expiry > SystemClock.elapsedRealtime()) {
+            mHitCount++;
+            return true;
+        }
+        if (expiry != null) {
+            mGrants.remove(key);
+        }
+        mMissCount++;
+        return false;
+    }
+
+    /**
+     * @return the generation to pass to {@link #grant}, read before running the check.
+     */
+    synchronized long getGeneration() {
+        return mGeneration;
+    }
+
+    /**
+     * record that the caller passed the check on the subscription.
+     * @param generation generation read before the check, the grant is dropped if the cache
+     *                   was invalidated since.
+     */
+    synchronized void grant(int check, int uid, String packageName, int subId,
+            long generation) {
+        if (generation != mGeneration) {
+            return;
+        }
+        mGrants.put(new Key(check, uid, packageName, subId),
+                SystemClock.elapsedRealtime() + mTtlMs);
+    }
+
+    synchronized void invalidate() {
+        mGeneration++;
+        mGrants.clear();
+    }
+
+    @VisibleForTesting
+    synchronized int size() {
+        return mGrants.size();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "ONSPermissionCache: grants " + mGrants.size() + " hits " + mHitCount
+                + " misses " + mMissCount;
+    }
+}
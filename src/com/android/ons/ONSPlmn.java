@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ons;
+
+import android.telephony.CellIdentityNr;
+import android.telephony.CellInfo;
+import android.telephony.CellInfoLte;
+import android.telephony.CellInfoNr;
+import android.util.SparseBooleanArray;
+
+import java.util.List;
+
+/**
+ * Packed integer representation of a PLMN.
+ * The MCC, the MNC and whether the MNC has 2 or 3 digits are encoded in a single int so that
+ * PLMNs can be compared and looked up without allocating Strings.
+ *
+ * Layout: bits 11-20 hold the MCC, bit 10 is set for a 3 digit MNC and bits 0-9 hold the MNC.
+ */
+final class ONSPlmn {
+    static final int INVALID = -1;
+
+    private static final int MNC_BITS = 10;
+    private static final int MNC_MASK = (1 << MNC_BITS) - 1;
+    private static final int THREE_DIGIT_MNC_FLAG = 1 << MNC_BITS;
+    private static final int MCC_SHIFT = MNC_BITS + 1;
+    private static final int MCC_LENGTH = 3;
+
+    private ONSPlmn() {}
+
+    /**
+     * pack MCC and MNC
+     * @param mcc 3 digit MCC
+     * @param mnc 2 or 3 digit MNC
+     * @return packed PLMN or {@link #INVALID} if the MCC or MNC is malformed.
+     */
+    static int pack(String mcc, String mnc) {
+        if (mcc == null || mnc == null || mcc.length() != MCC_LENGTH
+                || (mnc.length() != 2 && mnc.length() != 3)) {
+            return INVALID;
+        }
+        int mccValue = parseDigits(mcc, 0, MCC_LENGTH);
+        int mncValue = parseDigits(mnc, 0, mnc.length());
+        if (mccValue == INVALID || mncValue == INVALID) {
+            return INVALID;
+        }
+        return encode(mccValue, mncValue, mnc.length() == 3);
+    }
+
+    /**
+     * pack a concatenated MCC-MNC string as used by {@link android.telephony.AvailableNetworkInfo}
+     * @param mccMnc 5 or 6 digit MCC-MNC
+     * @return packed PLMN or {@link #INVALID} if the string is malformed.
+     */
+    static int pack(String mccMnc) {
+        if (mccMnc == null || (mccMnc.length() != 5 && mccMnc.length() != 6)) {
+            return INVALID;
+        }
+        int mccValue = parseDigits(mccMnc, 0, MCC_LENGTH);
+        int mncValue = parseDigits(mccMnc, MCC_LENGTH, mccMnc.length());
+        if (mccValue == INVALID || mncValue == INVALID) {
+            return INVALID;
+        }
+        return encode(mccValue, mncValue, mccMnc.length() == 6);
+    }
+
+    /**
+     * @return packed PLMN of an LTE or NR cell, {@link #INVALID} for other cells.
+     */
+    static int fromCellInfo(CellInfo cellInfo) {
+        if (cellInfo instanceof CellInfoLte) {
+            return pack(((CellInfoLte) cellInfo).getCellIdentity().getMccString(),
+                    ((CellInfoLte) cellInfo).getCellIdentity().getMncString());
+        }
+        if (cellInfo instanceof CellInfoNr) {
+            CellIdentityNr cellIdentityNr =
+                    (CellIdentityNr) ((CellInfoNr) cellInfo).getCellIdentity();
+            return pack(cellIdentityNr.getMccString(), cellIdentityNr.getMncString());
+        }
+        return INVALID;
+    }
+
+    /**
+     * add the packed form of each valid MCC-MNC string to the given set
+     */
+    static void addAll(SparseBooleanArray plmns, List<String> mccMncs) {
+        if (mccMncs == null) {
+            return;
+        }
+        for (String mccMnc : mccMncs) {
+            int plmn = pack(mccMnc);
+            if (plmn != INVALID) {
+                plmns.put(plmn, true);
+            }
+        }
+    }
+
+    static int getMcc(int plmn) {
+        return plmn >>> MCC_SHIFT;
+    }
+
+    static int getMnc(int plmn) {
+        return plmn & MNC_MASK;
+    }
+
+    static boolean hasThreeDigitMnc(int plmn) {
+        return (plmn & THREE_DIGIT_MNC_FLAG) != 0;
+    }
+
+    static String toString(int plmn) {
+        if (plmn == INVALID) {
+            return "invalid";
+        }
+        return String.format(hasThreeDigitMnc(plmn) ? "%03d%03d" : "%03d%02d",
+                getMcc(plmn), getMnc(plmn));
+    }
+
+    private static int encode(int mcc, int mnc, boolean threeDigitMnc) {
+        return (mcc << MCC_SHIFT) | (threeDigitMnc ? THREE_DIGIT_MNC_FLAG : 0) | mnc;
+    }
+
+    private static int parseDigits(String s, int start, int end) {
+        int value = 0;
+        for (int i = start; i < end; i++) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9') {
+                return INVALID;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+}
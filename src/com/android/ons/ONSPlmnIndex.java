@@ -0,0 +1,102 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ons;
+
+import android.telephony.AvailableNetworkInfo;
+import android.telephony.SubscriptionManager;
+import android.util.SparseLongArray;
+
+import java.util.List;
+
+/**
+ * Lookup index from packed PLMN, see ONSPlmn, to the best priority and the subscription
+ * announcing it among a list of available networks.
+ * Built once per request so that matching a scan result is a single lookup.
+ * Instances are immutable.
+ */
+final class ONSPlmnIndex {
+    static final int NO_PRIORITY = Integer.MAX_VALUE;
+
+    private static final long NO_ENTRY = -1;
+
+    static final ONSPlmnIndex EMPTY = new ONSPlmnIndex(new SparseLongArray(0));
+
+    /* priority in the upper 32 bits, sub id in the lower 32 bits */
+    private final SparseLongArray mEntries;
+
+    private ONSPlmnIndex(SparseLongArray entries) {
+        mEntries = entries;
+    }
+
+    /**
+     * @param availableNetworks available networks. If several announce the same PLMN, the one
+     *                          with the best (lowest) priority wins, then the first one.
+     */
+    static ONSPlmnIndex build(List<AvailableNetworkInfo> availableNetworks) {
+        if (availableNetworks == null || availableNetworks.isEmpty()) {
+            return EMPTY;
+        }
+        SparseLongArray entries = new SparseLongArray();
+        for (AvailableNetworkInfo availableNetwork : availableNetworks) {
+            List<String> mccMncs = availableNetwork.getMccMncs();
+            if (mccMncs == null) {
+                continue;
+            }
+            int priority = availableNetwork.getPriority();
+            for (String mccMnc : mccMncs) {
+                int plmn = ONSPlmn.pack(mccMnc);
+                if (plmn == ONSPlmn.INVALID) {
+                    continue;
+                }
+                long entry = entries.get(plmn, NO_ENTRY);
+                if (entry == NO_ENTRY || priority < getPriority(entry)) {
+                    entries.put(plmn, encode(priority, availableNetwork.getSubId()));
+                }
+            }
+        }
+        return new ONSPlmnIndex(entries);
+    }
+
+    /**
+     * @return best priority announcing the PLMN or {@link #NO_PRIORITY}.
+     */
+    int getPriority(int plmn) {
+        long entry = mEntries.get(plmn, NO_ENTRY);
+        return entry == NO_ENTRY ? NO_PRIORITY : getPriority(entry);
+    }
+
+    /**
+     * @return subscription announcing the PLMN with the best priority or
+     * {@link SubscriptionManager#INVALID_SUBSCRIPTION_ID}.
+     */
+    int getSubId(int plmn) {
+        long entry = mEntries.get(plmn, NO_ENTRY);
+        return entry == NO_ENTRY ? SubscriptionManager.INVALID_SUBSCRIPTION_ID : (int) entry;
+    }
+
+    int size() {
+        return mEntries.size();
+    }
+
+    private static long encode(int priority, int subId) {
+        return ((long) priority << 32) | (subId & 0xffffffffL);
+    }
+
+    private static int getPriority(long entry) {
+        return (int) (entry >>> 32);
+    }
+}
@@ -23,34 +23,29 @@ import android.app.PendingIntent;
 import android.compat.Compatibility;
 import android.content.Context;
 import android.content.Intent;
-import android.os.AsyncTask;
 import android.os.Handler;
 import android.os.HandlerThread;
+import android.os.Looper;
 import android.os.Message;
 import android.os.RemoteException;
+import android.os.SystemClock;
 import android.telephony.AvailableNetworkInfo;
 import android.telephony.CellInfo;
-import android.telephony.CellInfoLte;
-import android.telephony.SignalStrength;
 import android.telephony.SubscriptionInfo;
 import android.telephony.SubscriptionManager;
-import android.telephony.TelephonyFrameworkInitializer;
 import android.telephony.TelephonyManager;
-import android.text.TextUtils;
+import android.util.Log;
 
 import com.android.internal.annotations.VisibleForTesting;
 import com.android.internal.telephony.ISetOpportunisticDataCallback;
-import com.android.internal.telephony.ISub;
 import com.android.internal.telephony.IUpdateAvailableNetworksCallback;
 import com.android.telephony.Rlog;
 
+import java.io.PrintWriter;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.concurrent.Executor;
 
 /**
  * Profile selector class which will select the right profile based upon
@@ -59,7 +54,6 @@ import java.util.stream.Collectors;
 public class ONSProfileSelector {
     private static final String LOG_TAG = "ONSProfileSelector";
     private static final boolean DBG = true;
-    private final Object mLock = new Object();
 
     private static final int INVALID_SEQUENCE_ID = -1;
     private static final int START_SEQUENCE_ID = 1;
@@ -76,7 +70,40 @@ public class ONSProfileSelector {
     /* message to stop profile selection process */
     private static final int MSG_STOP_PROFILE_SELECTION = 4;
 
+    /* message to handle the latest start or stop request of the mailbox */
+    private static final int MSG_HANDLE_REQUEST = 5;
+
+    /**
+     * profile selection states. A selection starts from IDLE, scans if needed, switches to the
+     * selected subscription if it is not active and then enables its modem. SETTING_DATA is
+     * entered while the data preference is moved back to the default subscription before the
+     * opportunistic modem is disabled. See isValidTransition() for the allowed transitions.
+     */
+    @VisibleForTesting
+    enum SelectionState {
+        IDLE,
+        SCANNING,
+        SWITCHING,
+        ENABLING_MODEM,
+        SETTING_DATA
+    }
+
     private boolean mIsEnabled = false;
+    private SelectionState mState = SelectionState.IDLE;
+    /* start and stop requests, latest wins. A request stays in the mailbox while switching. */
+    private final ONSRequestMailbox mRequestMailbox = new ONSRequestMailbox();
+    /* switch statistics, written on the handler thread and read by dump */
+    private volatile int mDeferredRequestCount;
+    private volatile int mCompletedSwitchCount;
+    private volatile int mAbortedSwitchCount;
+    /* bounds the time a caller waits for a switch, a modem enable or a data preference */
+    @VisibleForTesting
+    protected ONSOperationDeadlines mDeadlines;
+    /* deadline of the switch in progress, null unless SWITCHING */
+    private ONSOperationDeadlines.Deadline mSwitchDeadline;
+    /* both do their work on the background executor given at construction */
+    private final ONSSubscriptionServiceProxy mSubscriptionService;
+    private final ONSCallbackDispatcher mCallbackDispatcher;
 
     @VisibleForTesting
     protected Context mContext;
@@ -91,22 +118,38 @@ public class ONSProfileSelector {
 
     @VisibleForTesting
     protected SubscriptionManager mSubscriptionManager;
+    /* read from binder threads, replaced as a whole on update. null until the opportunistic
+       subscriptions have been read once. */
     @VisibleForTesting
-    protected List<SubscriptionInfo> mOppSubscriptionInfos;
+    protected volatile ONSSubscriptionIndex mSubscriptionIndex;
+    /* mirror of the active subscriptions, refreshed by the subscription listeners so that
+       selection does not query SubscriptionManager over binder. The preferred data
+       subscription is not mirrored, it changes without notifying these listeners. */
+    private volatile ONSActiveSubscriptions mActiveSubscriptions = ONSActiveSubscriptions.EMPTY;
+    /* modem stack state per slot, radio commands are only issued for slots out of sync */
+    private final ONSModemSlotStates mModemSlotStates = new ONSModemSlotStates();
     @VisibleForTesting
-    protected List<SubscriptionInfo> mStandaloneOppSubInfos;
+    protected SubscriptionManager.OnSubscriptionsChangedListener mSubscriptionsChangedListener;
     private ONSProfileSelectionCallback mProfileSelectionCallback;
     private int mSequenceId;
     private int mSubId;
     @VisibleForTesting
-    protected int mCurrentDataSubId = SubscriptionManager.INVALID_SUBSCRIPTION_ID;
+    protected volatile int mCurrentDataSubId = SubscriptionManager.INVALID_SUBSCRIPTION_ID;
     private ArrayList<AvailableNetworkInfo> mAvailableNetworkInfos;
+    /* fingerprint of mAvailableNetworkInfos, see ONSConfigInput */
+    private long mAvailableNetworksFingerprint;
+    /* PLMN lookup index of mAvailableNetworkInfos, built when they are set */
+    private ONSPlmnIndex mAvailableNetworkIndex = ONSPlmnIndex.EMPTY;
     private IUpdateAvailableNetworksCallback mNetworkScanCallback;
 
     public static final String ACTION_SUB_SWITCH =
             "android.intent.action.SUBSCRIPTION_SWITCH_REPLY";
 
     HandlerThread mThread;
+    /* looper of the shared event loop, null if the selector runs its own thread */
+    private Looper mLooper;
+    /* selection state is confined to the handler thread, it shares its looper with the scan
+       controller so scan callbacks arrive on it as well */
     @VisibleForTesting
     protected Handler mHandler;
 
@@ -118,13 +161,19 @@ public class ONSProfileSelector {
             new ONSNetworkScanCtlr.NetworkAvailableCallBack() {
                 @Override
                 public void onNetworkAvailability(List<CellInfo> results) {
+                    if (!isOnHandlerThread()) {
+                        mHandler.post(() -> onNetworkAvailability(results));
+                        return;
+                    }
+                    if (mState != SelectionState.SCANNING) {
+                        logDebug("scan results ignored in state " + mState);
+                        return;
+                    }
                     int subId = retrieveBestSubscription(results);
                     if (subId == SubscriptionManager.INVALID_SUBSCRIPTION_ID) {
                         sendUpdateNetworksCallbackHelper(mNetworkScanCallback,
                                 TelephonyManager.UPDATE_AVAILABLE_NETWORKS_INVALID_ARGUMENTS);
-                        synchronized (mLock) {
-                            mNetworkScanCallback = null;
-                        }
+                        mNetworkScanCallback = null;
                         return;
                     }
 
@@ -135,39 +184,46 @@ public class ONSProfileSelector {
 
                 @Override
                 public void onError(int error) {
+                    if (!isOnHandlerThread()) {
+                        mHandler.post(() -> onError(error));
+                        return;
+                    }
                     log("Network scan failed with error " + error);
-                    synchronized (mLock) {
-                        if (mIsEnabled && mAvailableNetworkInfos != null
-                            && mAvailableNetworkInfos.size() > 0) {
-                            handleNetworkScanResult(mAvailableNetworkInfos.get(0).getSubId());
-                        } else {
-                            if (mNetworkScanCallback != null) {
-                                if (mIsEnabled) {
+                    if (mState != SelectionState.SCANNING) {
+                        logDebug("scan error ignored in state " + mState);
+                        return;
+                    }
+                    if (mIsEnabled && mAvailableNetworkInfos != null
+                        && mAvailableNetworkInfos.size() > 0) {
+                        handleNetworkScanResult(getHighestPrioritySubId(mAvailableNetworkInfos));
+                    } else {
+                        if (mNetworkScanCallback != null) {
+                            if (mIsEnabled) {
+                                sendUpdateNetworksCallbackHelper(mNetworkScanCallback,
+                                        TelephonyManager
+                                                .UPDATE_AVAILABLE_NETWORKS_INVALID_ARGUMENTS);
+                            } else {
+                                if (Compatibility.isChangeEnabled(
+                                        OpportunisticNetworkService
+                                                .CALLBACK_ON_MORE_ERROR_CODE_CHANGE)) {
                                     sendUpdateNetworksCallbackHelper(mNetworkScanCallback,
                                             TelephonyManager
-                                                    .UPDATE_AVAILABLE_NETWORKS_INVALID_ARGUMENTS);
+                                                    .UPDATE_AVAILABLE_NETWORKS_SERVICE_IS_DISABLED);
                                 } else {
-                                    if (Compatibility.isChangeEnabled(
-                                            OpportunisticNetworkService
-                                                    .CALLBACK_ON_MORE_ERROR_CODE_CHANGE)) {
-                                        sendUpdateNetworksCallbackHelper(mNetworkScanCallback,
-                                                TelephonyManager
-                                                        .UPDATE_AVAILABLE_NETWORKS_SERVICE_IS_DISABLED);
-                                    } else {
-                                        sendUpdateNetworksCallbackHelper(mNetworkScanCallback,
-                                                TelephonyManager
-                                                        .UPDATE_AVAILABLE_NETWORKS_UNKNOWN_FAILURE);
-                                    }
+                                    sendUpdateNetworksCallbackHelper(mNetworkScanCallback,
+                                            TelephonyManager
+                                                    .UPDATE_AVAILABLE_NETWORKS_UNKNOWN_FAILURE);
                                 }
-                                mNetworkScanCallback = null;
                             }
+                            mNetworkScanCallback = null;
                         }
+                        finishSelection();
                     }
                 }
 
                 private void handleNetworkScanResult(int subId) {
                     /* if subscription is already active, just enable modem */
-                    if (mSubscriptionManager.isActiveSubId(subId)) {
+                    if (isActiveSub(subId)) {
                         if (enableModem(subId, true)) {
                             sendUpdateNetworksCallbackHelper(mNetworkScanCallback,
                                 TelephonyManager.UPDATE_AVAILABLE_NETWORKS_SUCCESS);
@@ -184,10 +240,9 @@ public class ONSProfileSelector {
                             }
                         }
                         mProfileSelectionCallback.onProfileSelectionDone();
-                        synchronized (mLock) {
-                            mNetworkScanCallback = null;
-                            mAvailableNetworkInfos = null;
-                        }
+                        mNetworkScanCallback = null;
+                        mAvailableNetworkInfos = null;
+                        finishSelection();
                     } else {
                         logDebug("switch to sub:" + subId);
                         switchToSubscription(subId);
@@ -215,132 +270,69 @@ public class ONSProfileSelector {
          * interface call back to confirm profile selection
          */
         void onProfileSelectionDone();
-    }
-
-    class SortSubInfo implements Comparator<SubscriptionInfo>
-    {
-        // Used for sorting in ascending order of sub id
-        public int compare(SubscriptionInfo a, SubscriptionInfo b)
-        {
-            return a.getSubscriptionId() - b.getSubscriptionId();
-        }
-    }
 
-    class SortAvailableNetworks implements Comparator<AvailableNetworkInfo>
-    {
-        // Used for sorting in ascending order of sub id
-        public int compare(AvailableNetworkInfo a, AvailableNetworkInfo b)
-        {
-            return a.getSubId() - b.getSubId();
-        }
+        /**
+         * the modem of the opportunistic subscription was enabled or disabled.
+         * @param subId the enabled subscription, INVALID_SUBSCRIPTION_ID once disabled.
+         */
+        default void onProfileSelected(int subId) {}
     }
 
-    class SortAvailableNetworksInPriority implements Comparator<AvailableNetworkInfo>
-    {
-        // Used for sorting in descending order of priority (ascending order of priority numbers)
-        public int compare(AvailableNetworkInfo a, AvailableNetworkInfo b)
-        {
-            return a.getPriority() - b.getPriority();
-        }
+    /**
+     * ONSProfileSelector constructor
+     * The selector runs its own thread, and makes its background work inline on it.
+     * @param c context
+     * @param profileSelectionCallback callback to be called once selection is done
+     */
+    public ONSProfileSelector(Context c, ONSProfileSelectionCallback profileSelectionCallback) {
+        this(c, profileSelectionCallback, null, Runnable::run);
     }
 
     /**
      * ONSProfileSelector constructor
      * @param c context
      * @param profileSelectionCallback callback to be called once selection is done
+     * @param looper looper of the event loop shared with the caller, null to run a thread of
+     *               its own
+     * @param backgroundExecutor executor owned by the caller, results are delivered and
+     *                           subscription service calls made on it
      */
-    public ONSProfileSelector(Context c, ONSProfileSelectionCallback profileSelectionCallback) {
+    public ONSProfileSelector(Context c, ONSProfileSelectionCallback profileSelectionCallback,
+            Looper looper, Executor backgroundExecutor) {
+        mLooper = looper;
+        mSubscriptionService = new ONSSubscriptionServiceProxy(backgroundExecutor);
+        mCallbackDispatcher = new ONSCallbackDispatcher(backgroundExecutor);
         init(c, profileSelectionCallback);
         log("ONSProfileSelector init complete");
     }
 
-    private int getSignalLevel(CellInfo cellInfo) {
-        if (cellInfo != null) {
-            return cellInfo.getCellSignalStrength().getLevel();
-        } else {
-            return SignalStrength.SIGNAL_STRENGTH_NONE_OR_UNKNOWN;
-        }
-    }
-
-    private String getMcc(CellInfo cellInfo) {
-        String mcc = "";
-        if (cellInfo instanceof CellInfoLte) {
-            mcc = ((CellInfoLte) cellInfo).getCellIdentity().getMccString();
-        }
-
-        return mcc;
-    }
-
-    private String getMnc(CellInfo cellInfo) {
-        String mnc = "";
-        if (cellInfo instanceof CellInfoLte) {
-            mnc = ((CellInfoLte) cellInfo).getCellIdentity().getMncString();
-        }
-
-        return mnc;
-    }
-
-    private int getSubIdUsingAvailableNetworks(String mcc, String mnc, int priorityLevel) {
-        String mccMnc = mcc + mnc;
-        synchronized (mLock) {
-            if (mAvailableNetworkInfos != null) {
-                for (AvailableNetworkInfo availableNetworkInfo : mAvailableNetworkInfos) {
-                    if (availableNetworkInfo.getPriority() != priorityLevel) {
-                        continue;
-                    }
-                    for (String availableMccMnc : availableNetworkInfo.getMccMncs()) {
-                        if (TextUtils.equals(availableMccMnc, mccMnc)) {
-                            return availableNetworkInfo.getSubId();
-                        }
-                    }
-                }
-            }
-        }
-        return SubscriptionManager.INVALID_SUBSCRIPTION_ID;
+    private boolean isOnHandlerThread() {
+        return mHandler.getLooper().isCurrentThread();
     }
 
     public SubscriptionInfo getOpprotunisticSubInfo(int subId) {
-        if ((mOppSubscriptionInfos == null) || (mOppSubscriptionInfos.size() == 0)) {
+        ONSSubscriptionIndex subscriptionIndex = mSubscriptionIndex;
+        if (subscriptionIndex == null) {
             return null;
         }
-        for (SubscriptionInfo subscriptionInfo : mOppSubscriptionInfos) {
-            if (subscriptionInfo.getSubscriptionId() == subId) {
-                return subscriptionInfo;
-            }
-        }
-        return null;
+        return subscriptionIndex.getOpportunisticSubscription(subId);
     }
 
     public boolean isOpprotunisticSub(int subId) {
-        if ((mOppSubscriptionInfos == null) || (mOppSubscriptionInfos.size() == 0)) {
-            return false;
-        }
-        for (SubscriptionInfo subscriptionInfo : mOppSubscriptionInfos) {
-            if (subscriptionInfo.getSubscriptionId() == subId) {
-                return true;
-            }
-        }
-        return false;
+        ONSSubscriptionIndex subscriptionIndex = mSubscriptionIndex;
+        return subscriptionIndex != null && subscriptionIndex.isOpportunistic(subId);
     }
 
     public boolean hasOpprotunisticSub(List<AvailableNetworkInfo> availableNetworks) {
         if ((availableNetworks == null) || (availableNetworks.size() == 0)) {
             return false;
         }
-        if ((mOppSubscriptionInfos == null) || (mOppSubscriptionInfos.size() == 0)) {
+        /* a single snapshot for the whole request */
+        ONSSubscriptionIndex subscriptionIndex = mSubscriptionIndex;
+        if ((subscriptionIndex == null) || (subscriptionIndex.size() == 0)) {
             return false;
         }
-
-        for (AvailableNetworkInfo availableNetworkInfo : availableNetworks) {
-            if (!isOpprotunisticSub(availableNetworkInfo.getSubId())) {
-                return false;
-            }
-        }
-        return true;
-    }
-
-    private boolean isAvtiveSub(int subId) {
-        return mSubscriptionManager.isActiveSubscriptionId(subId);
+        return subscriptionIndex.containsAllOpportunistic(availableNetworks);
     }
 
     private HashMap<Integer, IUpdateAvailableNetworksCallback> callbackStubs = new HashMap<>();
@@ -352,6 +344,10 @@ public class ONSProfileSelector {
         callbackIntent.putExtra("sequenceId", mSequenceId);
         callbackIntent.putExtra("subId", subId);
         mSubId = subId;
+        transitionTo(SelectionState.SWITCHING);
+        mDeadlines.updateTimeouts(mNetworkScanCtlr.getCarrierConfig());
+        mSwitchDeadline = mDeadlines.start(ONSOperationDeadlines.OP_SWITCH_SUBSCRIPTION,
+                () -> onSubSwitchTimeout(subId));
         PendingIntent replyIntent = PendingIntent.getService(mContext,
                 1, callbackIntent, PendingIntent.FLAG_ONE_SHOT | PendingIntent.FLAG_IMMUTABLE);
         mSubscriptionManager.switchToSubscription(subId, replyIntent);
@@ -371,10 +367,17 @@ public class ONSProfileSelector {
 
     private void onSubSwitchComplete(int subId) {
         /* Ignore if this is callback for an older request */
-        if (mSubId != subId) {
+        if (mState != SelectionState.SWITCHING || mSubId != subId) {
             return;
         }
-
+        mCompletedSwitchCount++;
+        mDeadlines.complete(mSwitchDeadline);
+        mSwitchDeadline = null;
+        logDebug(mDeadlines.toString());
+
+        /* the switch reply usually comes before the subscriptions changed callback, the
+           mirror would not know the just activated subscription yet */
+        updateActiveSubscriptions();
         if (enableModem(subId, true)) {
             sendUpdateNetworksCallbackHelper(mNetworkScanCallback,
                 TelephonyManager.UPDATE_AVAILABLE_NETWORKS_SUCCESS);
@@ -391,52 +394,50 @@ public class ONSProfileSelector {
         mProfileSelectionCallback.onProfileSelectionDone();
         mNetworkScanCallback = null;
         mAvailableNetworkInfos = null;
+        finishSelection();
     }
 
-    private void updateToken() {
-        synchronized (mLock) {
-            mSequenceId++;
-        }
-    }
-
-    private ArrayList<AvailableNetworkInfo> getFilteredAvailableNetworks(
-            ArrayList<AvailableNetworkInfo> availableNetworks,
-            List<SubscriptionInfo> subscriptionInfoList) {
-        ArrayList<AvailableNetworkInfo> filteredAvailableNetworks =
-                new ArrayList<AvailableNetworkInfo>();
-
-        /* instead of checking each element of a list every element of the other, sort them in
-           the order of sub id and compare to improve the filtering performance. */
-        Collections.sort(subscriptionInfoList, new SortSubInfo());
-        Collections.sort(availableNetworks, new SortAvailableNetworks());
-        int availableNetworksIndex = 0;
-        int subscriptionInfoListIndex = 0;
-        SubscriptionInfo subscriptionInfo;
-        AvailableNetworkInfo availableNetwork;
-
-        while (availableNetworksIndex < availableNetworks.size()
-                && subscriptionInfoListIndex < subscriptionInfoList.size()) {
-            subscriptionInfo = subscriptionInfoList.get(subscriptionInfoListIndex);
-            availableNetwork = availableNetworks.get(availableNetworksIndex);
-            if (subscriptionInfo.getSubscriptionId() == availableNetwork.getSubId()) {
-                filteredAvailableNetworks.add(availableNetwork);
-                subscriptionInfoListIndex++;
-                availableNetworksIndex++;
-            } else if (subscriptionInfo.getSubscriptionId() < availableNetwork.getSubId()) {
-                subscriptionInfoListIndex++;
-            } else {
-                availableNetworksIndex++;
-            }
+    /**
+     * the switch did not report back in time. If the subscription became active anyway the
+     * selection goes on as if the reply was received, otherwise the caller gets a failure and
+     * the selection ends.
+     */
+    private void onSubSwitchTimeout(int subId) {
+        if (mState != SelectionState.SWITCHING || mSubId != subId) {
+            return;
         }
-        return filteredAvailableNetworks;
+        mSwitchDeadline = null;
+        updateActiveSubscriptions();
+        if (isActiveSub(subId)) {
+            log("switch to sub " + subId + " not acknowledged but sub is active");
+            onSubSwitchComplete(subId);
+            return;
+        }
+        log("switch to sub " + subId + " timed out");
+        mAbortedSwitchCount++;
+        /* a late reply for this switch must not be taken for a newer one */
+        updateToken();
+        if (Compatibility.isChangeEnabled(
+                OpportunisticNetworkService.CALLBACK_ON_MORE_ERROR_CODE_CHANGE)) {
+            sendUpdateNetworksCallbackHelper(mNetworkScanCallback,
+                    TelephonyManager.UPDATE_AVAILABLE_NETWORKS_UNKNOWN_FAILURE);
+        } else {
+            sendUpdateNetworksCallbackHelper(mNetworkScanCallback,
+                    TelephonyManager.UPDATE_AVAILABLE_NETWORKS_ABORTED);
+        }
+        mProfileSelectionCallback.onProfileSelectionDone();
+        mNetworkScanCallback = null;
+        mAvailableNetworkInfos = null;
+        finishSelection();
     }
 
-    private boolean isSame(ArrayList<AvailableNetworkInfo> availableNetworks1,
-            ArrayList<AvailableNetworkInfo> availableNetworks2) {
-        if ((availableNetworks1 == null) || (availableNetworks2 == null)) {
-            return false;
-        }
-        return new HashSet<>(availableNetworks1).equals(new HashSet<>(availableNetworks2));
+    private void updateToken() {
+        mSequenceId++;
+    }
+
+    private boolean isSame(ONSConfigInput request) {
+        return request.hasSameAvailableNetworks(mAvailableNetworkInfos,
+                mAvailableNetworksFingerprint);
     }
 
     private boolean isPrimaryActiveOnOpportunisticSlot(
@@ -448,21 +449,8 @@ public class ONSProfileSelector {
             return false;
         }
 
-        List<SubscriptionInfo> subscriptionInfos =
-            mSubscriptionManager.getActiveSubscriptionInfoList(false);
-        if (subscriptionInfos == null) {
-            return false;
-        }
-
         /* if there is a primary subscription active on the eSIM, return true */
-        for (SubscriptionInfo subscriptionInfo : subscriptionInfos) {
-            if (!subscriptionInfo.isOpportunistic() && subscriptionInfo.isEmbedded()) {
-                return true;
-            }
-        }
-
-        return false;
-
+        return mActiveSubscriptions.isPrimaryActiveOnEmbedded();
     }
     private void sendUpdateNetworksCallbackHelper(IUpdateAvailableNetworksCallback callback,
             int result) {
@@ -470,19 +458,15 @@ public class ONSProfileSelector {
             log("callback is null");
             return;
         }
-        try {
-            callback.onComplete(result);
-        } catch (RemoteException exception) {
-            log("RemoteException " + exception);
-        }
+        /* delivered on the background executor, see ONSCallbackDispatcher */
+        mCallbackDispatcher.dispatch(callback, result);
     }
 
-    private void checkProfileUpdate(Object[] objects) {
-        ArrayList<AvailableNetworkInfo> availableNetworks =
-                (ArrayList<AvailableNetworkInfo>) objects[0];
-        IUpdateAvailableNetworksCallback callbackStub =
-                (IUpdateAvailableNetworksCallback) objects[1];
-        if (mOppSubscriptionInfos == null) {
+    private void checkProfileUpdate(ONSConfigInput request) {
+        ArrayList<AvailableNetworkInfo> availableNetworks = request.getAvailableNetworkInfos();
+        IUpdateAvailableNetworksCallback callbackStub = request.getAvailableNetworkCallback();
+        ONSSubscriptionIndex subscriptionIndex = mSubscriptionIndex;
+        if (subscriptionIndex == null) {
             logDebug("null subscription infos");
             if (Compatibility.isChangeEnabled(
                     OpportunisticNetworkService.CALLBACK_ON_MORE_ERROR_CODE_CHANGE)) {
@@ -503,7 +487,7 @@ public class ONSProfileSelector {
             return;
         }
 
-        if (isSame(availableNetworks, mAvailableNetworkInfos)) {
+        if (isSame(request)) {
             logDebug("received duplicate requests");
             /* If we receive same request more than once, send abort response for earlier one
                and send actual response for the latest callback.
@@ -514,23 +498,28 @@ public class ONSProfileSelector {
             return;
         }
 
-        stopProfileScanningPrecedure();
+        /* keep the running scan, the scan controller decides whether it covers the new request */
+        abortProfileSelection();
         mIsEnabled = true;
         mAvailableNetworkInfos = availableNetworks;
-        /* sort in the order of priority */
-        Collections.sort(mAvailableNetworkInfos, new SortAvailableNetworksInPriority());
+        mAvailableNetworksFingerprint = request.getFingerprint();
+        /* the list is shared with the service, it is never modified. Priorities are resolved
+           by ONSPlmnIndex and getHighestPrioritySubId. */
+        mAvailableNetworkIndex = ONSPlmnIndex.build(mAvailableNetworkInfos);
         logDebug("availableNetworks: " + availableNetworks);
 
-        if (mOppSubscriptionInfos.size() > 0) {
-            logDebug("opportunistic subscriptions size " + mOppSubscriptionInfos.size());
+        if (subscriptionIndex.size() > 0) {
+            logDebug("opportunistic subscriptions size " + subscriptionIndex.size());
+            /* keeps the order of the request */
             ArrayList<AvailableNetworkInfo> filteredAvailableNetworks =
-                    getFilteredAvailableNetworks((ArrayList<AvailableNetworkInfo>)availableNetworks,
-                            mOppSubscriptionInfos);
+                    subscriptionIndex.filterOpportunistic(availableNetworks);
             if ((filteredAvailableNetworks.size() == 1)
                     && ((filteredAvailableNetworks.get(0).getMccMncs() == null)
                     || (filteredAvailableNetworks.get(0).getMccMncs().size() == 0))) {
+                /* no scan needed for this request */
+                mNetworkScanCtlr.stopNetworkScan();
                 /* if subscription is not active, activate the sub */
-                if (!mSubscriptionManager.isActiveSubId(filteredAvailableNetworks.get(0).getSubId())) {
+                if (!isActiveSub(filteredAvailableNetworks.get(0).getSubId())) {
                     mNetworkScanCallback = callbackStub;
                     switchToSubscription(filteredAvailableNetworks.get(0).getSubId());
                 } else {
@@ -549,13 +538,15 @@ public class ONSProfileSelector {
                     }
                     mProfileSelectionCallback.onProfileSelectionDone();
                     mAvailableNetworkInfos = null;
+                    finishSelection();
                 }
             } else {
                 mNetworkScanCallback = callbackStub;
                 /* start scan immediately */
+                transitionTo(SelectionState.SCANNING);
                 mNetworkScanCtlr.startFastNetworkScan(filteredAvailableNetworks);
             }
-        } else if (mOppSubscriptionInfos.size() == 0) {
+        } else {
             if (Compatibility.isChangeEnabled(
                     OpportunisticNetworkService.CALLBACK_ON_MORE_ERROR_CODE_CHANGE)) {
                 sendUpdateNetworksCallbackHelper(callbackStub,
@@ -570,58 +561,66 @@ public class ONSProfileSelector {
         }
     }
 
-    private boolean isActiveSub(int subId) {
-        List<SubscriptionInfo> subscriptionInfos =
-                mSubscriptionManager.getActiveSubscriptionInfoList(false);
-        if (subscriptionInfos == null) {
-            return false;
-        }
-
-        for (SubscriptionInfo subscriptionInfo : subscriptionInfos) {
-            if (subscriptionInfo.getSubscriptionId() == subId) {
-                return true;
+    /**
+     * @return subscription of the network with the best (lowest) priority, the first one if
+     * several share it.
+     */
+    private static int getHighestPrioritySubId(List<AvailableNetworkInfo> availableNetworks) {
+        AvailableNetworkInfo best = availableNetworks.get(0);
+        for (AvailableNetworkInfo availableNetwork : availableNetworks) {
+            if (availableNetwork.getPriority() < best.getPriority()) {
+                best = availableNetwork;
             }
         }
+        return best.getSubId();
+    }
 
-        return false;
+    private boolean isActiveSub(int subId) {
+        return mActiveSubscriptions.isActive(subId);
     }
 
+    /**
+     * pick the subscription of the best scanned cell: the best priority first, then the best
+     * signal quality, see ONSSignalScorer. Single pass, results are not modified.
+     */
     @VisibleForTesting
     protected int retrieveBestSubscription(List<CellInfo> results) {
-        /* sort the results according to signal strength level */
-        Collections.sort(results, new Comparator<CellInfo>() {
-            @Override
-            public int compare(CellInfo cellInfo1, CellInfo cellInfo2) {
-                return getSignalLevel(cellInfo1) - getSignalLevel(cellInfo2);
+        if (mAvailableNetworkInfos == null) {
+            return SubscriptionManager.INVALID_SUBSCRIPTION_ID;
+        }
+        /* low priority networks are not selected */
+        int bestPriority = PRIORITY_LOW;
+        int bestScore = ONSSignalScorer.NO_SCORE;
+        int bestSubId = SubscriptionManager.INVALID_SUBSCRIPTION_ID;
+        for (CellInfo result : results) {
+            int plmn = ONSPlmn.fromCellInfo(result);
+            int priority = mAvailableNetworkIndex.getPriority(plmn);
+            if (priority < PRIORITY_HIGH || priority >= PRIORITY_LOW
+                    || priority > bestPriority) {
+                continue;
             }
-        });
-
-        for (int level = PRIORITY_HIGH; level < PRIORITY_LOW; level++) {
-            for (CellInfo result : results) {
-                /* get subscription id for the best network scan result */
-                int subId = getSubIdUsingAvailableNetworks(getMcc(result), getMnc(result), level);
-                if (subId != SubscriptionManager.INVALID_SUBSCRIPTION_ID) {
-                    return subId;
-                }
+            int score = ONSSignalScorer.score(result);
+            if (priority < bestPriority || score > bestScore) {
+                bestPriority = priority;
+                bestScore = score;
+                bestSubId = mAvailableNetworkIndex.getSubId(plmn);
             }
         }
 
-        return SubscriptionManager.INVALID_SUBSCRIPTION_ID;
+        return bestSubId;
     }
 
     private boolean isOpportunisticSubEmbedded(
             ArrayList<AvailableNetworkInfo> availableNetworks) {
-        List<SubscriptionInfo> subscriptionInfos =
-            mSubscriptionManager.getOpportunisticSubscriptions();
-        if (subscriptionInfos == null) {
+        ONSSubscriptionIndex subscriptionIndex = mSubscriptionIndex;
+        if (subscriptionIndex == null) {
             return false;
         }
         for (AvailableNetworkInfo availableNetworkInfo : availableNetworks) {
-            for (SubscriptionInfo subscriptionInfo : subscriptionInfos) {
-                if (subscriptionInfo.getSubscriptionId() == availableNetworkInfo.getSubId()
-                        && subscriptionInfo.isEmbedded()) {
-                    return true;
-                }
+            SubscriptionInfo subscriptionInfo =
+                    subscriptionIndex.getOpportunisticSubscription(availableNetworkInfo.getSubId());
+            if (subscriptionInfo != null && subscriptionInfo.isEmbedded()) {
+                return true;
             }
         }
 
@@ -629,18 +628,7 @@ public class ONSProfileSelector {
     }
 
     private int getActiveOpportunisticSubId() {
-        List<SubscriptionInfo> subscriptionInfos =
-            mSubscriptionManager.getActiveSubscriptionInfoList(false);
-        if (subscriptionInfos == null) {
-            return SubscriptionManager.INVALID_SUBSCRIPTION_ID;
-        }
-        for (SubscriptionInfo subscriptionInfo : subscriptionInfos) {
-            if (subscriptionInfo.isOpportunistic()) {
-                return subscriptionInfo.getSubscriptionId();
-            }
-        }
-
-        return SubscriptionManager.INVALID_SUBSCRIPTION_ID;
+        return mActiveSubscriptions.getActiveOpportunisticSubId();
     }
 
     private void disableOpportunisticModem(IUpdateAvailableNetworksCallback callbackStub) {
@@ -672,96 +660,261 @@ public class ONSProfileSelector {
     }
 
     private boolean enableModem(int subId, boolean enable) {
-        SubscriptionInfo info = mSubscriptionManager.getActiveSubscriptionInfo(subId);
+        SubscriptionInfo info = mActiveSubscriptions.getActiveSubscription(subId);
         if (info == null) {
             // Subscription is not active. Do nothing.
             return false;
         }
 
+        transitionTo(SelectionState.ENABLING_MODEM);
         // If disabling modem for opportunistic sub, make sure to switch data back to default sub.
         if (!enable) {
-            if (mSubscriptionManager.getPreferredDataSubscriptionId() == subId) {
-                selectProfileForData(SubscriptionManager.DEFAULT_SUBSCRIPTION_ID, false, null);
+            if (getPreferredDataSubscriptionId() == subId) {
+                transitionTo(SelectionState.SETTING_DATA);
+                /* data must be handed back before the modem goes down, the call is made on
+                   the selector loop */
+                boolean sent = mSubscriptionService.setPreferredDataSubscriptionIdNow(
+                        SubscriptionManager.DEFAULT_SUBSCRIPTION_ID, false, null);
+                onPreferredDataRequestSent(SubscriptionManager.DEFAULT_SUBSCRIPTION_ID, sent,
+                        null);
+                transitionTo(SelectionState.ENABLING_MODEM);
             }
         }
-        int phoneId = info.getSimSlotIndex();
-        /*  Todo: b/135067156
-         *  Reenable this code once 135067156 is fixed
-        if (mSubscriptionBoundTelephonyManager.isModemEnabledForSlot(phoneId) == enable) {
-            logDebug("modem is already enabled ");
-            return true;
-        } */
+        boolean result = setModemEnabledForSlot(mSubscriptionBoundTelephonyManager,
+                info.getSimSlotIndex(), enable);
+        if (result) {
+            mProfileSelectionCallback.onProfileSelected(
+                    enable ? subId : SubscriptionManager.INVALID_SUBSCRIPTION_ID);
+        }
+        return result;
+    }
 
-        return mSubscriptionBoundTelephonyManager.enableModemForSlot(phoneId, enable);
+    /**
+     * bring the modem stack of a slot to the given state, skipping the radio command if the slot
+     * is reported to be in that state already.
+     */
+    private boolean setModemEnabledForSlot(TelephonyManager telephonyManager, int slotIndex,
+            boolean enable) {
+        /* read back on every call, the modem may have been switched behind our back */
+        mModemSlotStates.onActualState(slotIndex,
+                telephonyManager.isModemEnabledForSlot(slotIndex));
+        if (!mModemSlotStates.setDesired(slotIndex, enable)) {
+            logDebug("modem of slot " + slotIndex + " already "
+                    + (enable ? "enabled" : "disabled"));
+            return true;
+        }
+        /* the call blocks the handler, its latency is only recorded */
+        long startMs = SystemClock.elapsedRealtime();
+        boolean result = telephonyManager.enableModemForSlot(slotIndex, enable);
+        mDeadlines.recordLatency(ONSOperationDeadlines.OP_ENABLE_MODEM, startMs);
+        mModemSlotStates.onCommandComplete(slotIndex, enable, result);
+        return result;
     }
 
     private void stopProfileSelectionProcess(IUpdateAvailableNetworksCallback callbackStub) {
         stopProfileScanningPrecedure();
         logDebug("stopProfileSelection");
         disableOpportunisticModem(callbackStub);
+        finishSelection();
     }
 
     private void stopProfileScanningPrecedure() {
-        synchronized (mLock) {
-            if (mNetworkScanCallback != null) {
-                sendUpdateNetworksCallbackHelper(mNetworkScanCallback,
+        abortProfileSelection();
+        mNetworkScanCtlr.stopNetworkScan();
+    }
+
+    /* abort the ongoing profile selection request without touching the network scan */
+    private void abortProfileSelection() {
+        if (mNetworkScanCallback != null) {
+            sendUpdateNetworksCallbackHelper(mNetworkScanCallback,
+                    TelephonyManager.UPDATE_AVAILABLE_NETWORKS_ABORTED);
+            mNetworkScanCallback = null;
+        }
+
+        mAvailableNetworkInfos = null;
+        mIsEnabled = false;
+        if (mState == SelectionState.SWITCHING) {
+            mAbortedSwitchCount++;
+        }
+        mDeadlines.cancel(mSwitchDeadline);
+        mSwitchDeadline = null;
+        transitionTo(SelectionState.IDLE);
+    }
+
+    /* the selection is done, handle the request deferred while switching if any */
+    private void finishSelection() {
+        transitionTo(SelectionState.IDLE);
+        if (!mRequestMailbox.isEmpty()) {
+            logDebug("handling deferred request");
+            wakeUpForRequest();
+        }
+    }
+
+    private void postRequest(Message request) {
+        mRequestMailbox.post(request);
+        wakeUpForRequest();
+    }
+
+    private void wakeUpForRequest() {
+        if (!mHandler.hasMessages(MSG_HANDLE_REQUEST)) {
+            mHandler.sendEmptyMessage(MSG_HANDLE_REQUEST);
+        }
+    }
+
+    /* handle the latest request of the mailbox, the ones it superseded are aborted at once */
+    private void handleRequest() {
+        List<Message> superseded = mRequestMailbox.drainSuperseded();
+        if (!superseded.isEmpty()) {
+            logDebug("aborting " + superseded.size() + " superseded requests, superseded "
+                    + mRequestMailbox.getSupersededCount());
+            for (Message request : superseded) {
+                sendUpdateNetworksCallbackHelper(getRequestCallback(request),
                         TelephonyManager.UPDATE_AVAILABLE_NETWORKS_ABORTED);
-                mNetworkScanCallback = null;
             }
-            mNetworkScanCtlr.stopNetworkScan();
+        }
+        Message request = mRequestMailbox.take();
+        if (request == null) {
+            return;
+        }
+        if (isDeferred(request)) {
+            mRequestMailbox.restore(request);
+            return;
+        }
+        switch (request.what) {
+            case MSG_START_PROFILE_SELECTION:
+                logDebug("Msg received for profile update");
+                checkProfileUpdate((ONSConfigInput) request.obj);
+                break;
+            case MSG_STOP_PROFILE_SELECTION:
+                logDebug("Msg received to stop profile selection");
+                stopProfileSelectionProcess((IUpdateAvailableNetworksCallback) request.obj);
+                break;
+            default:
+                log("invalid request " + request.what);
+                break;
+        }
+    }
+
+    /**
+     * check whether a start or stop request has to wait for the switch in progress. A request
+     * arriving mid-switch waits in the mailbox instead of aborting the switch. A duplicate of
+     * the request being switched for is not deferred, it only takes over the callback.
+     */
+    private boolean isDeferred(Message request) {
+        if (mState != SelectionState.SWITCHING) {
+            return false;
+        }
+        if (request.what == MSG_START_PROFILE_SELECTION
+                && isSame((ONSConfigInput) request.obj)) {
+            return false;
+        }
+        mDeferredRequestCount++;
+        logDebug("request " + request.what + " deferred while switching to sub " + mSubId
+                + ", deferred " + mDeferredRequestCount
+                + " switches completed " + mCompletedSwitchCount);
+        return true;
+    }
 
-            mAvailableNetworkInfos = null;
-            mIsEnabled = false;
+    private static IUpdateAvailableNetworksCallback getRequestCallback(Message msg) {
+        if (msg.what == MSG_START_PROFILE_SELECTION) {
+            return ((ONSConfigInput) msg.obj).getAvailableNetworkCallback();
         }
+        return (IUpdateAvailableNetworksCallback) msg.obj;
     }
 
-    public boolean containsOpportunisticSubs(ArrayList<AvailableNetworkInfo> availableNetworks) {
-        if (mOppSubscriptionInfos == null) {
-            logDebug("received null subscription infos");
+    /**
+     * move to the given state. A transition not allowed by isValidTransition() is a bug, it is
+     * reported and the state is left unchanged.
+     * @return true if the selector is in the given state afterwards.
+     */
+    private boolean transitionTo(SelectionState state) {
+        if (mState == state) {
+            return true;
+        }
+        if (!isValidTransition(mState, state)) {
+            Log.wtf(LOG_TAG, "invalid transition " + mState + " -> " + state);
             return false;
         }
+        logDebug("state " + mState + " -> " + state);
+        mState = state;
+        return true;
+    }
 
-        if (mOppSubscriptionInfos.size() > 0) {
-            logDebug("opportunistic subscriptions size " + mOppSubscriptionInfos.size());
-            ArrayList<AvailableNetworkInfo> filteredAvailableNetworks =
-                    getFilteredAvailableNetworks(
-                            (ArrayList<AvailableNetworkInfo>)availableNetworks, mOppSubscriptionInfos);
-            if (filteredAvailableNetworks.size() > 0) {
-                return true;
-            }
+    private static boolean isValidTransition(SelectionState from, SelectionState to) {
+        switch (from) {
+            case IDLE:
+                return to == SelectionState.SCANNING || to == SelectionState.SWITCHING
+                        || to == SelectionState.ENABLING_MODEM;
+            case SCANNING:
+                return to == SelectionState.IDLE || to == SelectionState.SWITCHING
+                        || to == SelectionState.ENABLING_MODEM;
+            case SWITCHING:
+                return to == SelectionState.IDLE || to == SelectionState.ENABLING_MODEM;
+            case ENABLING_MODEM:
+                return to == SelectionState.IDLE || to == SelectionState.SETTING_DATA;
+            case SETTING_DATA:
+                return to == SelectionState.ENABLING_MODEM || to == SelectionState.IDLE;
+            default:
+                return false;
         }
+    }
 
-        return false;
+    @VisibleForTesting
+    SelectionState getSelectionState() {
+        return mState;
     }
 
-    public boolean containStandaloneOppSubs(ArrayList<AvailableNetworkInfo> availableNetworks) {
-        if (mStandaloneOppSubInfos == null) {
+    @VisibleForTesting
+    int getAbortedSwitchCount() {
+        return mAbortedSwitchCount;
+    }
+
+    /**
+     * dump the selection state and the switch statistics
+     */
+    public void dump(PrintWriter pw) {
+        pw.println("ONSProfileSelector:");
+        pw.println("  state=" + mState);
+        pw.println("  switches completed=" + mCompletedSwitchCount
+                + " aborted=" + mAbortedSwitchCount
+                + " deferred requests=" + mDeferredRequestCount
+                + " superseded requests=" + mRequestMailbox.getSupersededCount());
+        pw.println("  " + mDeadlines);
+    }
+
+    public boolean containsOpportunisticSubs(ArrayList<AvailableNetworkInfo> availableNetworks) {
+        ONSSubscriptionIndex subscriptionIndex = mSubscriptionIndex;
+        if (subscriptionIndex == null) {
             logDebug("received null subscription infos");
             return false;
         }
-        if (mStandaloneOppSubInfos.size() > 0) {
-            logDebug("Standalone opportunistic subInfos size " + mStandaloneOppSubInfos.size());
-            ArrayList<AvailableNetworkInfo> filteredAvailableNetworks =
-                    getFilteredAvailableNetworks(
-                            (ArrayList<AvailableNetworkInfo>) availableNetworks,
-                            mStandaloneOppSubInfos);
-            if (filteredAvailableNetworks.size() > 0) {
-                return true;
-            }
+
+        logDebug("opportunistic subscriptions size " + subscriptionIndex.size());
+        return subscriptionIndex.containsAnyOpportunistic(availableNetworks);
+    }
+
+    public boolean containStandaloneOppSubs(ArrayList<AvailableNetworkInfo> availableNetworks) {
+        ONSSubscriptionIndex subscriptionIndex = mSubscriptionIndex;
+        if (subscriptionIndex == null) {
+            logDebug("received null subscription infos");
+            return false;
         }
-        return false;
+        logDebug("Standalone opportunistic subInfos size " + subscriptionIndex.getStandaloneSize());
+        return subscriptionIndex.containsAnyStandaloneOpportunistic(availableNetworks);
     }
 
     public boolean isOpportunisticSubActive() {
-        if (mOppSubscriptionInfos == null) {
+        ONSSubscriptionIndex subscriptionIndex = mSubscriptionIndex;
+        if (subscriptionIndex == null) {
             logDebug("received null subscription infos");
             return false;
         }
 
-        if (mOppSubscriptionInfos.size() > 0) {
-            logDebug("opportunistic subscriptions size " + mOppSubscriptionInfos.size());
-            for (SubscriptionInfo subscriptionInfo : mOppSubscriptionInfos) {
-                if (mSubscriptionManager.isActiveSubId(subscriptionInfo.getSubscriptionId())) {
+        if (subscriptionIndex.size() > 0) {
+            logDebug("opportunistic subscriptions size " + subscriptionIndex.size());
+            for (SubscriptionInfo subscriptionInfo
+                    : subscriptionIndex.getOpportunisticSubscriptions()) {
+                if (isActiveSub(subscriptionInfo.getSubscriptionId())) {
                     return true;
                 }
             }
@@ -769,6 +922,25 @@ public class ONSProfileSelector {
         return false;
     }
 
+    /**
+     * enable again the opportunistic subscription selected before a restart of the phone
+     * process, ahead of the profile selection which revalidates it. Nothing is done if the
+     * subscription is no longer active or a selection is already under way.
+     * @param subId opportunistic subscription last enabled
+     */
+    public void restoreSelectedProfile(int subId) {
+        mHandler.post(() -> {
+            if (mState != SelectionState.IDLE || !isOpprotunisticSub(subId)
+                    || !isActiveSub(subId)) {
+                logDebug("not restoring selected sub " + subId);
+                return;
+            }
+            logDebug("restoring selected sub " + subId);
+            enableModem(subId, true);
+            finishSelection();
+        });
+    }
+
     public void startProfileSelection(ArrayList<AvailableNetworkInfo> availableNetworks,
             IUpdateAvailableNetworksCallback callbackStub) {
         logDebug("startProfileSelection availableNetworks: " + availableNetworks);
@@ -779,9 +951,9 @@ public class ONSProfileSelector {
             }
             return;
         }
-        Object[] objects = new Object[]{availableNetworks, callbackStub};
-        Message message = Message.obtain(mHandler, MSG_START_PROFILE_SELECTION, objects);
-        message.sendToTarget();
+        /* the request fingerprint is computed once here, on the calling thread */
+        postRequest(Message.obtain(null, MSG_START_PROFILE_SELECTION,
+                new ONSConfigInput(availableNetworks, callbackStub)));
     }
 
     private void sendSetOpptCallbackHelper(ISetOpportunisticDataCallback callback, int result) {
@@ -801,39 +973,12 @@ public class ONSProfileSelector {
     public void selectProfileForData(int subId, boolean needValidation,
             ISetOpportunisticDataCallback callbackStub) {
         if ((subId == SubscriptionManager.DEFAULT_SUBSCRIPTION_ID)
-                || (isOpprotunisticSub(subId) && mSubscriptionManager.isActiveSubId(subId))) {
-            ISub iSub = ISub.Stub.asInterface(
-                    TelephonyFrameworkInitializer
-                            .getTelephonyServiceManager()
-                            .getSubscriptionServiceRegisterer()
-                            .get());
-            if (iSub == null) {
-                log("Could not get Subscription Service handle");
-                if (Compatibility.isChangeEnabled(
-                        OpportunisticNetworkService.CALLBACK_ON_MORE_ERROR_CODE_CHANGE)) {
-                    sendSetOpptCallbackHelper(callbackStub,
-                            TelephonyManager.SET_OPPORTUNISTIC_SUB_REMOTE_SERVICE_EXCEPTION);
-                } else {
-                    sendSetOpptCallbackHelper(callbackStub,
-                            TelephonyManager.SET_OPPORTUNISTIC_SUB_VALIDATION_FAILED);
-                }
-                return;
-            }
-            try {
-                iSub.setPreferredDataSubscriptionId(subId, needValidation, callbackStub);
-            } catch (RemoteException ex) {
-                log("Could not connect to Subscription Service");
-                if (Compatibility.isChangeEnabled(
-                        OpportunisticNetworkService.CALLBACK_ON_MORE_ERROR_CODE_CHANGE)) {
-                    sendSetOpptCallbackHelper(callbackStub,
-                            TelephonyManager.SET_OPPORTUNISTIC_SUB_REMOTE_SERVICE_EXCEPTION);
-                } else {
-                    sendSetOpptCallbackHelper(callbackStub,
-                            TelephonyManager.SET_OPPORTUNISTIC_SUB_VALIDATION_FAILED);
-                }
-                return;
-            }
-            mCurrentDataSubId = subId;
+                || (isOpprotunisticSub(subId) && isActiveSub(subId))) {
+            ISetOpportunisticDataCallback deadlineCallback = withDeadline(callbackStub);
+            /* the call is made off the selector loop */
+            mSubscriptionService.setPreferredDataSubscriptionId(subId, needValidation,
+                    deadlineCallback, sent -> onPreferredDataRequestSent(subId, sent,
+                            deadlineCallback));
         } else {
             log("Inactive sub passed for preferred data " + subId);
             if (Compatibility.isChangeEnabled(
@@ -852,6 +997,58 @@ public class ONSProfileSelector {
         }
     }
 
+    /* called once the request was made, on the background executor unless the request was
+       made on the selector loop */
+    private void onPreferredDataRequestSent(int subId, boolean sent,
+            ISetOpportunisticDataCallback deadlineCallback) {
+        if (sent) {
+            mCurrentDataSubId = subId;
+            return;
+        }
+        /* answered through the wrapper so that the deadline does not answer again */
+        if (Compatibility.isChangeEnabled(
+                OpportunisticNetworkService.CALLBACK_ON_MORE_ERROR_CODE_CHANGE)) {
+            sendSetOpptCallbackHelper(deadlineCallback,
+                    TelephonyManager.SET_OPPORTUNISTIC_SUB_REMOTE_SERVICE_EXCEPTION);
+        } else {
+            sendSetOpptCallbackHelper(deadlineCallback,
+                    TelephonyManager.SET_OPPORTUNISTIC_SUB_VALIDATION_FAILED);
+        }
+    }
+
+    /**
+     * wrap a data preference callback so that it is answered at the latest on the deadline.
+     * Whichever of the reply and the deadline comes first answers the callback, the other one
+     * is dropped.
+     */
+    private ISetOpportunisticDataCallback withDeadline(ISetOpportunisticDataCallback callbackStub) {
+        mDeadlines.updateTimeouts(mNetworkScanCtlr.getCarrierConfig());
+        ONSOperationDeadlines.Deadline deadline = mDeadlines.start(
+                ONSOperationDeadlines.OP_SET_PREFERRED_DATA, () -> {
+                    log("preferred data switch timed out");
+                    if (Compatibility.isChangeEnabled(
+                            OpportunisticNetworkService.CALLBACK_ON_MORE_ERROR_CODE_CHANGE)) {
+                        sendSetOpptCallbackHelper(callbackStub,
+                                TelephonyManager.SET_OPPORTUNISTIC_SUB_REMOTE_SERVICE_EXCEPTION);
+                    } else {
+                        sendSetOpptCallbackHelper(callbackStub,
+                                TelephonyManager.SET_OPPORTUNISTIC_SUB_VALIDATION_FAILED);
+                    }
+                });
+        return new ISetOpportunisticDataCallback.Stub() {
+            @Override
+            public void onComplete(int result) {
+                if (mDeadlines.complete(deadline)) {
+                    sendSetOpptCallbackHelper(callbackStub, result);
+                }
+            }
+        };
+    }
+
+    /**
+     * @return the preferred data subscription, read from SubscriptionManager on every call
+     * since Settings, PhoneSwitcher and other privileged callers change it as well.
+     */
     public int getPreferredDataSubscriptionId() {
         return mSubscriptionManager.getPreferredDataSubscriptionId();
     }
@@ -861,23 +1058,34 @@ public class ONSProfileSelector {
      */
     public void stopProfileSelection(IUpdateAvailableNetworksCallback callbackStub) {
         logDebug("stopProfileSelection");
-        Message message = Message.obtain(mHandler, MSG_STOP_PROFILE_SELECTION, callbackStub);
-        message.sendToTarget();
+        postRequest(Message.obtain(null, MSG_STOP_PROFILE_SELECTION, callbackStub));
+    }
+
+    /**
+     * release the resources of the profile selector and of its network scan controller. The
+     * selector must not be used afterwards.
+     */
+    public void dispose() {
+        logDebug("dispose");
+        mNetworkScanCtlr.dispose();
+        if (mThread != null) {
+            mThread.quitSafely();
+        }
     }
 
     @VisibleForTesting
     protected void updateOpportunisticSubscriptions() {
-        synchronized (mLock) {
-            mOppSubscriptionInfos = mSubscriptionManager
-                    .getOpportunisticSubscriptions().stream()
-                    .filter(subInfo -> subInfo.isGroupDisabled() != true)
-                    .collect(Collectors.toList());
-            if (mOppSubscriptionInfos != null) {
-                mStandaloneOppSubInfos = mOppSubscriptionInfos.stream()
-                        .filter(subInfo -> subInfo.getGroupUuid() == null)
-                        .collect(Collectors.toList());
-            }
-        }
+        /* build the new snapshot aside and publish it with a single write */
+        mSubscriptionIndex = ONSSubscriptionIndex.from(
+                mSubscriptionManager.getOpportunisticSubscriptions());
+        /* opportunistic subscriptions moving in and out of groups change the active set too */
+        updateActiveSubscriptions();
+    }
+
+    /* refresh the mirror of the active subscriptions */
+    private void updateActiveSubscriptions() {
+        mActiveSubscriptions = ONSActiveSubscriptions.from(
+                mSubscriptionManager.getActiveSubscriptionInfoList(false));
     }
 
     private void enableModemStackForNonOpportunisticSlots() {
@@ -885,16 +1093,20 @@ public class ONSProfileSelector {
         // Do nothing in single SIM mode.
         if (phoneCount < 2) return;
 
-        for (int i = 0; i < phoneCount; i++) {
-            boolean hasActiveOpptProfile = false;
-            for (SubscriptionInfo info : mOppSubscriptionInfos) {
-                if (info.getSimSlotIndex() == i) {
-                    hasActiveOpptProfile = true;
-                }
+        /* slots holding an opportunistic profile, in a single pass over the profiles */
+        boolean[] hasActiveOpptProfile = new boolean[phoneCount];
+        for (SubscriptionInfo info : mSubscriptionIndex.getOpportunisticSubscriptions()) {
+            int slotIndex = info.getSimSlotIndex();
+            if (slotIndex >= 0 && slotIndex < phoneCount) {
+                hasActiveOpptProfile[slotIndex] = true;
             }
+        }
+        for (int i = 0; i < phoneCount; i++) {
             // If the slot doesn't have active opportunistic profile anymore, it's back to
             // DSDS use-case. Make sure the the modem stack is enabled.
-            if (!hasActiveOpptProfile) mTelephonyManager.enableModemForSlot(i, true);
+            if (!hasActiveOpptProfile[i]) {
+                setModemEnabledForSlot(mTelephonyManager, i, true);
+            }
         }
     }
 
@@ -910,38 +1122,29 @@ public class ONSProfileSelector {
                 SubscriptionManager.DEFAULT_SUBSCRIPTION_ID);
         mSubscriptionManager = (SubscriptionManager)
                 mContext.getSystemService(Context.TELEPHONY_SUBSCRIPTION_SERVICE);
+        Looper looper = mLooper;
+        if (looper == null) {
+            mThread = new HandlerThread(LOG_TAG);
+            mThread.start();
+            looper = mThread.getLooper();
+        }
         mNetworkScanCtlr = new ONSNetworkScanCtlr(mContext, mSubscriptionBoundTelephonyManager,
-                mNetworkAvailableCallBack);
+                looper, mNetworkAvailableCallBack);
         updateOpportunisticSubscriptions();
-        mThread = new HandlerThread(LOG_TAG);
-        mThread.start();
-        mHandler = new Handler(mThread.getLooper()) {
+        mHandler = new Handler(looper) {
             @Override
             public void handleMessage(Message msg) {
                 switch (msg.what) {
                     case MSG_PROFILE_UPDATE:
-                        synchronized (mLock) {
-                            updateOpportunisticSubscriptions();
-                            enableModemStackForNonOpportunisticSlots();
-                        }
-                        break;
-                    case MSG_START_PROFILE_SELECTION:
-                        logDebug("Msg received for profile update");
-                        synchronized (mLock) {
-                            checkProfileUpdate((Object[]) msg.obj);
-                        }
+                        updateOpportunisticSubscriptions();
+                        enableModemStackForNonOpportunisticSlots();
                         break;
-                    case MSG_STOP_PROFILE_SELECTION:
-                        logDebug("Msg received to stop profile selection");
-                        synchronized (mLock) {
-                            stopProfileSelectionProcess((IUpdateAvailableNetworksCallback) msg.obj);
-                        }
+                    case MSG_HANDLE_REQUEST:
+                        handleRequest();
                         break;
                     case MSG_SUB_SWITCH_COMPLETE:
                         logDebug("Msg received for sub switch");
-                        synchronized (mLock) {
-                            onSubSwitchComplete((int) msg.obj);
-                        }
+                        onSubSwitchComplete((int) msg.obj);
                         break;
                     default:
                         log("invalid message");
@@ -949,9 +1152,21 @@ public class ONSProfileSelector {
                 }
             }
         };
+        mDeadlines = new ONSOperationDeadlines(mHandler);
         /* register for profile update events */
         mSubscriptionManager.addOnOpportunisticSubscriptionsChangedListener(
-                AsyncTask.SERIAL_EXECUTOR, mProfileChangeListener);
+                mHandler::post, mProfileChangeListener);
+        /* keep the mirror of the active subscriptions current */
+        mSubscriptionsChangedListener = new SubscriptionManager.OnSubscriptionsChangedListener(
+                looper) {
+            @Override
+            public void onSubscriptionsChanged() {
+                logDebug("onSubscriptionsChanged.");
+                updateActiveSubscriptions();
+            }
+        };
+        mSubscriptionManager.addOnSubscriptionsChangedListener(mHandler::post,
+                mSubscriptionsChangedListener);
     }
 
     private void log(String msg) {
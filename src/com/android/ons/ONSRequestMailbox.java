@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ons;
+
+import android.os.Message;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Latest-wins mailbox for profile selection requests.
+ * Requests are posted from binder threads and taken on the handler thread. A request posted
+ * before the pending one was taken supersedes it, so a burst of requests results in a single
+ * selection. Superseded requests are kept until drained so their callers can be answered in
+ * one batch.
+ */
+final class ONSRequestMailbox {
+    private Message mPending;
+    private final ArrayList<Message> mSuperseded = new ArrayList<Message>();
+    private int mSupersededCount;
+
+    synchronized void post(Message request) {
+        supersede(mPending);
+        mPending = request;
+    }
+
+    /**
+     * @return the pending request or null if there is none. The mailbox is empty afterwards.
+     */
+    synchronized Message take() {
+        Message request = mPending;
+        mPending = null;
+        return request;
+    }
+
+    /**
+     * put back a request that was taken but cannot be handled yet. It is superseded if a newer
+     * request was posted in the meantime.
+     */
+    synchronized void restore(Message request) {
+        if (mPending != null) {
+            supersede(request);
+            return;
+        }
+        mPending = request;
+    }
+
+    synchronized boolean isEmpty() {
+        return mPending == null;
+    }
+
+    /**
+     * @return requests superseded since the last call, oldest first.
+     */
+    synchronized List<Message> drainSuperseded() {
+        if (mSuperseded.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<Message> superseded = new ArrayList<Message>(mSuperseded);
+        mSuperseded.clear();
+        return superseded;
+    }
+
+    /**
+     * @return number of requests superseded since creation.
+     */
+    synchronized int getSupersededCount() {
+        return mSupersededCount;
+    }
+
+    private void supersede(Message request) {
+        if (request != null) {
+            mSuperseded.add(request);
+            mSupersededCount++;
+        }
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ons;
+
+import java.util.function.Predicate;
+
+/**
+ * Latest available networks input of every requester of the ONS service, with one slot per
+ * requester class, and the arbitration between them.
+ * The policy is declared on {@link Requester}: requesters are ranked by priority, and a
+ * requester allowed to override with standalone opportunistic subscriptions wins over higher
+ * priority ones while its input holds such subscriptions. When a requester withdraws, the
+ * winner among the remaining ones takes over.
+ * Not thread safe, the service serializes access.
+ */
+class ONSRequesterRegistry {
+    /**
+     * requester classes, in decreasing order of priority.
+     */
+    enum Requester {
+        CARRIER_APP(false),
+        SYSTEM_APP(true);
+
+        /* input holding standalone opportunistic subscriptions wins over higher priority */
+        final boolean mStandaloneOverrides;
+
+        Requester(boolean standaloneOverrides) {
+            mStandaloneOverrides = standaloneOverrides;
+        }
+    }
+
+    private static final Requester[] REQUESTERS = Requester.values();
+
+    private final ONSConfigInput[] mInputs = new ONSConfigInput[REQUESTERS.length];
+
+    ONSConfigInput get(Requester requester) {
+        return mInputs[requester.ordinal()];
+    }
+
+    void set(Requester requester, ONSConfigInput input) {
+        mInputs[requester.ordinal()] = input;
+    }
+
+    /**
+     * withdraw the input of a requester
+     */
+    void clear(Requester requester) {
+        mInputs[requester.ordinal()] = null;
+    }
+
+    /**
+     * @param hasStandaloneOppSubs whether an input holds standalone opportunistic
+     *                             subscriptions. Only evaluated for requesters allowed to
+     *                             override with them.
+     * @return the requester whose input should drive the profile selection, null if no
+     * requester has an input.
+     */
+    Requester arbitrate(Predicate<ONSConfigInput> hasStandaloneOppSubs) {
+        return arbitrate(hasStandaloneOppSubs, null);
+    }
+
+    /**
+     * arbitrate as if the given requester had an input, whether it is registered or not.
+     */
+    Requester arbitrate(Predicate<ONSConfigInput> hasStandaloneOppSubs, Requester present) {
+        Requester winner = null;
+        for (Requester requester : REQUESTERS) {
+            ONSConfigInput input = mInputs[requester.ordinal()];
+            if (input == null && requester != present) {
+                continue;
+            }
+            if (requester.mStandaloneOverrides && input != null
+                    && hasStandaloneOppSubs.test(input)) {
+                return requester;
+            }
+            if (winner == null) {
+                winner = requester;
+            }
+        }
+        return winner;
+    }
+}
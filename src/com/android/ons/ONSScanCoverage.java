@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ons;
+
+import android.telephony.NetworkScanRequest;
+import android.telephony.RadioAccessSpecifier;
+import android.util.SparseArray;
+import android.util.SparseBooleanArray;
+
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * What a network scan request covers: a band bitmask per radio access network and the set of
+ * PLMNs. Used to tell whether a running scan already covers a new request, in which case the
+ * running scan is kept and only the result filter changes.
+ * Instances are immutable.
+ */
+final class ONSScanCoverage {
+    /* band bitmask per radio access network, an empty mask means all bands */
+    private final SparseArray<BitSet> mBands;
+    /* packed PLMNs, see ONSPlmn. Empty means all PLMNs. */
+    private final SparseBooleanArray mPlmns;
+    private final int mPeriodicity;
+    private final int mMaxSearchTime;
+
+    private ONSScanCoverage(SparseArray<BitSet> bands, SparseBooleanArray plmns, int periodicity,
+            int maxSearchTime) {
+        mBands = bands;
+        mPlmns = plmns;
+        mPeriodicity = periodicity;
+        mMaxSearchTime = maxSearchTime;
+    }
+
+    static ONSScanCoverage from(NetworkScanRequest networkScanRequest) {
+        SparseArray<BitSet> bands = new SparseArray<>();
+        RadioAccessSpecifier[] specifiers = networkScanRequest.getSpecifiers();
+        if (specifiers != null) {
+            for (RadioAccessSpecifier specifier : specifiers) {
+                BitSet bandMask = bands.get(specifier.getRadioAccessNetwork());
+                if (bandMask == null) {
+                    bandMask = new BitSet();
+                    bands.put(specifier.getRadioAccessNetwork(), bandMask);
+                }
+                if (specifier.getBands() != null) {
+                    for (int band : specifier.getBands()) {
+                        bandMask.set(band);
+                    }
+                }
+            }
+        }
+        SparseBooleanArray plmns = new SparseBooleanArray();
+        List<String> mccMncs = networkScanRequest.getPlmns();
+        ONSPlmn.addAll(plmns, mccMncs);
+        return new ONSScanCoverage(bands, plmns, networkScanRequest.getSearchPeriodicity(),
+                networkScanRequest.getMaxSearchTime());
+    }
+
+    /**
+     * @return true if a scan with this coverage finds everything a scan with the other coverage
+     * would find, i.e. this is a superset of other.
+     */
+    boolean covers(ONSScanCoverage other) {
+        if (mPeriodicity != other.mPeriodicity || mMaxSearchTime != other.mMaxSearchTime) {
+            return false;
+        }
+        for (int i = 0; i < other.mBands.size(); i++) {
+            BitSet bandMask = mBands.get(other.mBands.keyAt(i));
+            if (bandMask == null || !isSubset(other.mBands.valueAt(i), bandMask)) {
+                return false;
+            }
+        }
+        return isSubset(other.mPlmns, mPlmns);
+    }
+
+    /**
+     * @return true if this is a subset of other.
+     */
+    boolean isCoveredBy(ONSScanCoverage other) {
+        return other.covers(this);
+    }
+
+    private static boolean isSubset(BitSet subset, BitSet superset) {
+        if (superset.isEmpty()) {
+            return true;
+        }
+        if (subset.isEmpty()) {
+            return false;
+        }
+        BitSet difference = (BitSet) subset.clone();
+        difference.andNot(superset);
+        return difference.isEmpty();
+    }
+
+    private static boolean isSubset(SparseBooleanArray subset, SparseBooleanArray superset) {
+        if (superset.size() == 0) {
+            return true;
+        }
+        if (subset.size() == 0 || subset.size() > superset.size()) {
+            return false;
+        }
+        for (int i = 0; i < subset.size(); i++) {
+            if (!superset.get(subset.keyAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("ONSScanCoverage:");
+        for (int i = 0; i < mBands.size(); i++) {
+            sb.append(" ran ").append(mBands.keyAt(i)).append(" bands ").append(mBands.valueAt(i));
+        }
+        sb.append(" plmns ").append(mPlmns.size());
+        return sb.toString();
+    }
+}
@@ -0,0 +1,219 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ons;
+
+import android.telephony.AccessNetworkConstants;
+import android.telephony.AvailableNetworkInfo;
+import android.telephony.NetworkScanRequest;
+import android.telephony.RadioAccessSpecifier;
+import android.util.SparseBooleanArray;
+
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Builds the network scan request for a list of available networks.
+ * Built requests are cached, keyed by a fingerprint of the available networks together with
+ * the 4G scan flag and the periodicity, so that carrier apps re-posting the same availability
+ * do not rebuild the request.
+ */
+class ONSScanRequestBuilder {
+    private static final int MAX_CACHED_REQUESTS = 4;
+
+    /**
+     * Network scan request along with the packed PLMNs it scans for.
+     */
+    static final class ScanRequestInfo {
+        final NetworkScanRequest mNetworkScanRequest;
+        /* packed PLMNs, see ONSPlmn. Must not be modified. */
+        final SparseBooleanArray mPlmns;
+        final ONSScanCoverage mCoverage;
+
+        ScanRequestInfo(NetworkScanRequest networkScanRequest, SparseBooleanArray plmns) {
+            mNetworkScanRequest = networkScanRequest;
+            mPlmns = plmns;
+            mCoverage = ONSScanCoverage.from(networkScanRequest);
+        }
+    }
+
+    /**
+     * Cache key. The fingerprint is computed once and used as hash code, the available
+     * networks are only compared on a fingerprint match.
+     */
+    private static final class Key {
+        private final List<AvailableNetworkInfo> mAvailableNetworks;
+        private final boolean mIs4gScanEnabled;
+        private final int mPeriodicity;
+        private final int mFingerprint;
+
+        Key(List<AvailableNetworkInfo> availableNetworks, boolean is4gScanEnabled,
+                int periodicity) {
+            mAvailableNetworks = new ArrayList<AvailableNetworkInfo>(availableNetworks);
+            mIs4gScanEnabled = is4gScanEnabled;
+            mPeriodicity = periodicity;
+            int fingerprint = mAvailableNetworks.hashCode();
+            fingerprint = 31 * fingerprint + (is4gScanEnabled ? 1 : 0);
+            mFingerprint = 31 * fingerprint + periodicity;
+        }
+
+        @Override
+        public int hashCode() {
+            return mFingerprint;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return mFingerprint == other.mFingerprint
+                    && mIs4gScanEnabled == other.mIs4gScanEnabled
+                    && mPeriodicity == other.mPeriodicity
+                    && mAvailableNetworks.equals(other.mAvailableNetworks);
+        }
+    }
+
+    private final int mMaxSearchTime;
+    private final LinkedHashMap<Key, ScanRequestInfo> mCache =
+            new LinkedHashMap<Key, ScanRequestInfo>(MAX_CACHED_REQUESTS, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Key, ScanRequestInfo> eldest) {
+                    return size() > MAX_CACHED_REQUESTS;
+                }
+            };
+
+    ONSScanRequestBuilder(int maxSearchTime) {
+        mMaxSearchTime = maxSearchTime;
+    }
+
+    /**
+     * get the scan request for the given available networks, building it if not cached.
+     */
+    synchronized ScanRequestInfo build(List<AvailableNetworkInfo> availableNetworks,
+            boolean is4gScanEnabled, int periodicity) {
+        Key key = new Key(availableNetworks, is4gScanEnabled, periodicity);
+        ScanRequestInfo scanRequestInfo = mCache.get(key);
+        if (scanRequestInfo == null) {
+            scanRequestInfo = createScanRequestInfo(availableNetworks, is4gScanEnabled,
+                    periodicity);
+            mCache.put(key, scanRequestInfo);
+        }
+        return scanRequestInfo;
+    }
+
+    @VisibleForTesting
+    synchronized int getCacheSize() {
+        return mCache.size();
+    }
+
+    private ScanRequestInfo createScanRequestInfo(List<AvailableNetworkInfo> availableNetworks,
+            boolean is4gScanEnabled, int periodicity) {
+        RadioAccessSpecifier[] ras;
+        ArrayList<String> mccMncs = new ArrayList<String>();
+        SparseBooleanArray plmns = new SparseBooleanArray();
+        SparseBooleanArray bandSet5G = new SparseBooleanArray();
+        SparseBooleanArray bandSet4G = new SparseBooleanArray();
+
+        /* retrieve mcc mncs and bands for available networks */
+        for (AvailableNetworkInfo availableNetwork : availableNetworks) {
+            List<String> availableMccMncs = availableNetwork.getMccMncs();
+            mccMncs.addAll(availableMccMncs);
+            ONSPlmn.addAll(plmns, availableMccMncs);
+            List<RadioAccessSpecifier> radioAccessSpecifiers =
+                    availableNetwork.getRadioAccessSpecifiers();
+            if (radioAccessSpecifiers.isEmpty()) {
+                for (int band : availableNetwork.getBands()) {
+                    if (is4gScanEnabled) {
+                        bandSet4G.put(band, true);
+                    }
+                    bandSet5G.put(band, true);
+                }
+            } else {
+                for (RadioAccessSpecifier radioAccessSpecifier : radioAccessSpecifiers) {
+                    int radioAccessNetworkType = radioAccessSpecifier.getRadioAccessNetwork();
+                    if (is4gScanEnabled && radioAccessNetworkType
+                            == AccessNetworkConstants.AccessNetworkType.EUTRAN) {
+                        addBands(bandSet4G, radioAccessSpecifier.getBands());
+                    } else if (radioAccessNetworkType
+                            == AccessNetworkConstants.AccessNetworkType.NGRAN) {
+                        addBands(bandSet5G, radioAccessSpecifier.getBands());
+                    }
+                }
+            }
+        }
+
+        boolean isBandSet4GEmpty = bandSet4G.size() == 0;
+        boolean isBandSet5GEmpty = bandSet5G.size() == 0;
+        int rasSize = 1;
+        if (is4gScanEnabled && isBandSet4GEmpty == isBandSet5GEmpty) {
+            rasSize = 2;
+        }
+        ras = new RadioAccessSpecifier[rasSize];
+
+        if (isBandSet4GEmpty && isBandSet5GEmpty) {
+            // Set the default RadioAccessSpecifiers if none were set and no bands were set.
+            ras[0] = ONSNetworkScanCtlr.DEFAULT_5G_RAS;
+            if (is4gScanEnabled) {
+                ras[1] = ONSNetworkScanCtlr.DEFAULT_4G_RAS;
+            }
+        } else {
+            if (is4gScanEnabled && !isBandSet4GEmpty) {
+                ras[0] = new RadioAccessSpecifier(AccessNetworkConstants.AccessNetworkType.EUTRAN,
+                        toBandArray(bandSet4G), null);
+            }
+            if (!isBandSet5GEmpty) {
+                ras[rasSize - 1] = new RadioAccessSpecifier(
+                        AccessNetworkConstants.AccessNetworkType.NGRAN,
+                        toBandArray(bandSet5G), null);
+            } else if (!is4gScanEnabled) {
+                // Reached if only 4G was specified but 4G scan is disabled.
+                ras[0] = ONSNetworkScanCtlr.DEFAULT_5G_RAS;
+            }
+        }
+
+        NetworkScanRequest networkScanRequest = new NetworkScanRequest(
+                NetworkScanRequest.SCAN_TYPE_PERIODIC, ras, periodicity, mMaxSearchTime, false,
+                NetworkScanRequest.MAX_INCREMENTAL_PERIODICITY_SEC, mccMncs);
+        return new ScanRequestInfo(networkScanRequest, plmns);
+    }
+
+    private static void addBands(SparseBooleanArray bandSet, int[] bands) {
+        if (bands == null) {
+            return;
+        }
+        for (int band : bands) {
+            bandSet.put(band, true);
+        }
+    }
+
+    /* bands in ascending order */
+    private static int[] toBandArray(SparseBooleanArray bandSet) {
+        int[] bands = new int[bandSet.size()];
+        for (int i = 0; i < bands.length; i++) {
+            bands[i] = bandSet.keyAt(i);
+        }
+        return bands;
+    }
+}
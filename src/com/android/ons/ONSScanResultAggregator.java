@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ons;
+
+import android.telephony.CellIdentity;
+import android.telephony.CellInfo;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * Merges the partial result batches reported by the modem during one scan cycle.
+ * Cells are keyed by their identity and only the newest signal sample of each cell is kept,
+ * so that the selector is invoked once per cycle with a consolidated view.
+ * Not thread safe, expected to be used from the scan controller handler thread only.
+ */
+class ONSScanResultAggregator {
+    private final LinkedHashMap<CellIdentity, CellInfo> mCells = new LinkedHashMap<>();
+
+    /**
+     * merge a cell into the current cycle
+     * @param cellInfo cell reported by the modem. A sample for an already known cell replaces
+     *                 the existing one unless it is older.
+     */
+    void merge(CellInfo cellInfo) {
+        if (cellInfo == null || cellInfo.getCellIdentity() == null) {
+            return;
+        }
+        CellIdentity cellIdentity = cellInfo.getCellIdentity();
+        CellInfo existing = mCells.get(cellIdentity);
+        if (existing != null && existing.getTimestampMillis() > cellInfo.getTimestampMillis()) {
+            return;
+        }
+        mCells.put(cellIdentity, cellInfo);
+    }
+
+    /**
+     * @return the consolidated results in order of first appearance and reset the cycle.
+     */
+    List<CellInfo> drain() {
+        List<CellInfo> results = new ArrayList<CellInfo>(mCells.values());
+        mCells.clear();
+        return results;
+    }
+
+    boolean isEmpty() {
+        return mCells.isEmpty();
+    }
+
+    int size() {
+        return mCells.size();
+    }
+
+    void clear() {
+        mCells.clear();
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ons;
+
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Adaptive scan interval scheduler.
+ * The interval between two scan cycles starts at the minimum bound, doubles after every
+ * cycle which found no opportunistic network, up to the maximum bound, and falls back to the
+ * minimum bound once a network is found or the serving cell changes.
+ * Not thread safe, the scan controller serializes access.
+ */
+class ONSScanScheduler {
+    @VisibleForTesting
+    static final int DEFAULT_MIN_INTERVAL_SEC = (int) TimeUnit.MINUTES.toSeconds(1);
+    @VisibleForTesting
+    static final int DEFAULT_MAX_INTERVAL_SEC = (int) TimeUnit.MINUTES.toSeconds(10);
+
+    private int mMinIntervalSec = DEFAULT_MIN_INTERVAL_SEC;
+    private int mMaxIntervalSec = DEFAULT_MAX_INTERVAL_SEC;
+    private int mCurrentIntervalSec = DEFAULT_MIN_INTERVAL_SEC;
+    private int mConsecutiveEmptyCycles;
+
+    /**
+     * update the interval bounds from carrier config. Inconsistent values fall back to the
+     * defaults.
+     * @param config carrier config snapshot, may be null.
+     */
+    void updateBounds(ONSCarrierConfig config) {
+        if (config == null) {
+            setBounds(DEFAULT_MIN_INTERVAL_SEC, DEFAULT_MAX_INTERVAL_SEC);
+            return;
+        }
+        setBounds(config.mScanMinIntervalSec, config.mScanMaxIntervalSec);
+    }
+
+    @VisibleForTesting
+    void setBounds(int minIntervalSec, int maxIntervalSec) {
+        if (minIntervalSec <= 0 || maxIntervalSec < minIntervalSec) {
+            minIntervalSec = DEFAULT_MIN_INTERVAL_SEC;
+            maxIntervalSec = DEFAULT_MAX_INTERVAL_SEC;
+        }
+        mMinIntervalSec = minIntervalSec;
+        mMaxIntervalSec = maxIntervalSec;
+        mCurrentIntervalSec = Math.max(mMinIntervalSec,
+                Math.min(mCurrentIntervalSec, mMaxIntervalSec));
+    }
+
+    /**
+     * account for a completed scan cycle
+     * @param networkFound true if the cycle reported at least one matching network.
+     */
+    void onCycleComplete(boolean networkFound) {
+        if (networkFound) {
+            reset();
+            return;
+        }
+        mConsecutiveEmptyCycles++;
+        mCurrentIntervalSec = (int) Math.min((long) mCurrentIntervalSec * 2, mMaxIntervalSec);
+    }
+
+    /**
+     * a serving cell change makes previous empty cycles irrelevant.
+     * @return true if the interval was tightened.
+     */
+    boolean onServingCellChanged() {
+        boolean tightened = mCurrentIntervalSec > mMinIntervalSec;
+        reset();
+        return tightened;
+    }
+
+    void reset() {
+        mConsecutiveEmptyCycles = 0;
+        mCurrentIntervalSec = mMinIntervalSec;
+    }
+
+    /**
+     * @return delay before the next scan cycle is started.
+     */
+    long getNextScanDelayMs() {
+        return TimeUnit.SECONDS.toMillis(mCurrentIntervalSec);
+    }
+
+    int getMinIntervalSec() {
+        return mMinIntervalSec;
+    }
+
+    int getConsecutiveEmptyCycles() {
+        return mConsecutiveEmptyCycles;
+    }
+
+    @Override
+    public String toString() {
+        return "ONSScanScheduler: interval " + mCurrentIntervalSec + "s in [" + mMinIntervalSec
+                + ", " + mMaxIntervalSec + "], empty cycles " + mConsecutiveEmptyCycles;
+    }
+}
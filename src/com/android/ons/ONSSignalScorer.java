@@ -0,0 +1,106 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ons;
+
+import android.telephony.CellInfo;
+import android.telephony.CellInfoLte;
+import android.telephony.CellInfoNr;
+import android.telephony.CellSignalStrength;
+import android.telephony.CellSignalStrengthLte;
+import android.telephony.CellSignalStrengthNr;
+
+/**
+ * Signal quality score of a scanned cell, from 0 (worst) to {@link #MAX_SCORE} (best).
+ * LTE cells combine RSRP, RSRQ and RSSNR, NR cells combine SS-RSRP and SS-SINR. Each
+ * measurement is mapped linearly onto its reporting range, unavailable measurements are left
+ * out and the weights of the remaining ones rescaled. Other cells fall back to the signal
+ * level.
+ */
+final class ONSSignalScorer {
+    static final int MAX_SCORE = 1000;
+    /* no usable measurement */
+    static final int NO_SCORE = -1;
+
+    /* reporting ranges, see CellSignalStrengthLte and CellSignalStrengthNr */
+    private static final int RSRP_MIN = -140;
+    private static final int RSRP_MAX = -44;
+    private static final int RSRQ_MIN = -20;
+    private static final int RSRQ_MAX = -3;
+    private static final int RSSNR_MIN = -20;
+    private static final int RSSNR_MAX = 30;
+    private static final int SS_SINR_MIN = -23;
+    private static final int SS_SINR_MAX = 40;
+
+    /* weights in percent */
+    private static final int LTE_RSRP_WEIGHT = 50;
+    private static final int LTE_RSRQ_WEIGHT = 25;
+    private static final int LTE_RSSNR_WEIGHT = 25;
+    private static final int NR_SS_RSRP_WEIGHT = 60;
+    private static final int NR_SS_SINR_WEIGHT = 40;
+
+    private ONSSignalScorer() {}
+
+    static int score(CellInfo cellInfo) {
+        if (cellInfo instanceof CellInfoLte) {
+            CellSignalStrengthLte ss = ((CellInfoLte) cellInfo).getCellSignalStrength();
+            Accumulator acc = new Accumulator();
+            acc.add(ss.getRsrp(), RSRP_MIN, RSRP_MAX, LTE_RSRP_WEIGHT);
+            acc.add(ss.getRsrq(), RSRQ_MIN, RSRQ_MAX, LTE_RSRQ_WEIGHT);
+            acc.add(ss.getRssnr(), RSSNR_MIN, RSSNR_MAX, LTE_RSSNR_WEIGHT);
+            return acc.score(cellInfo);
+        }
+        if (cellInfo instanceof CellInfoNr) {
+            CellSignalStrengthNr ss =
+                    (CellSignalStrengthNr) ((CellInfoNr) cellInfo).getCellSignalStrength();
+            Accumulator acc = new Accumulator();
+            acc.add(ss.getSsRsrp(), RSRP_MIN, RSRP_MAX, NR_SS_RSRP_WEIGHT);
+            acc.add(ss.getSsSinr(), SS_SINR_MIN, SS_SINR_MAX, NR_SS_SINR_WEIGHT);
+            return acc.score(cellInfo);
+        }
+        return levelScore(cellInfo);
+    }
+
+    private static int levelScore(CellInfo cellInfo) {
+        if (cellInfo == null) {
+            return NO_SCORE;
+        }
+        int level = cellInfo.getCellSignalStrength().getLevel();
+        return level * MAX_SCORE / (CellSignalStrength.getNumSignalStrengthLevels() - 1);
+    }
+
+    /* weighted sum of the available measurements */
+    private static final class Accumulator {
+        private long mWeightedSum;
+        private int mWeight;
+
+        void add(int value, int min, int max, int weight) {
+            if (value == CellInfo.UNAVAILABLE) {
+                return;
+            }
+            int clamped = Math.max(min, Math.min(value, max));
+            mWeightedSum += (long) (clamped - min) * MAX_SCORE * weight / (max - min);
+            mWeight += weight;
+        }
+
+        int score(CellInfo cellInfo) {
+            if (mWeight == 0) {
+                return levelScore(cellInfo);
+            }
+            return (int) (mWeightedSum / mWeight);
+        }
+    }
+}
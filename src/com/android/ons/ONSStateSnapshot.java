@@ -0,0 +1,205 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ons;
+
+import android.os.PersistableBundle;
+import android.telephony.AvailableNetworkInfo;
+import android.telephony.RadioAccessSpecifier;
+import android.telephony.SubscriptionManager;
+
+import com.android.internal.annotations.VisibleForTesting;
+import com.android.ons.ONSRequesterRegistry.Requester;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Immutable snapshot of the ONS state kept across phone process restarts: the input of every
+ * requester and the opportunistic subscription last selected.
+ * Callbacks cannot outlive the process, restored inputs have none.
+ * The bundle layout is versioned, a snapshot of another version is dropped.
+ */
+final class ONSStateSnapshot {
+    @VisibleForTesting
+    static final int VERSION = 1;
+
+    private static final String KEY_VERSION = "version";
+    private static final String KEY_LAST_SELECTED_SUB_ID = "last_selected_sub_id";
+    private static final String KEY_REQUESTER_PREFIX = "requester_";
+    private static final String KEY_PRIMARY_SUB = "primary_sub";
+    private static final String KEY_PREFERRED_DATA_SUB = "preferred_data_sub";
+    private static final String KEY_NETWORK_COUNT = "network_count";
+    private static final String KEY_NETWORK_PREFIX = "network_";
+    private static final String KEY_SUB_ID = "sub_id";
+    private static final String KEY_PRIORITY = "priority";
+    private static final String KEY_MCC_MNCS = "mcc_mncs";
+    private static final String KEY_BANDS = "bands";
+    private static final String KEY_RAS_COUNT = "ras_count";
+    private static final String KEY_RAS_PREFIX = "ras_";
+    private static final String KEY_RAN = "ran";
+    private static final String KEY_CHANNELS = "channels";
+
+    private static final Requester[] REQUESTERS = Requester.values();
+
+    /* input per requester, indexed by Requester ordinal */
+    private final ONSConfigInput[] mInputs;
+    private final int mLastSelectedSubId;
+
+    private ONSStateSnapshot(ONSConfigInput[] inputs, int lastSelectedSubId) {
+        mInputs = inputs;
+        mLastSelectedSubId = lastSelectedSubId;
+    }
+
+    static ONSStateSnapshot from(ONSRequesterRegistry registry, int lastSelectedSubId) {
+        ONSConfigInput[] inputs = new ONSConfigInput[REQUESTERS.length];
+        for (Requester requester : REQUESTERS) {
+            inputs[requester.ordinal()] = registry.get(requester);
+        }
+        return new ONSStateSnapshot(inputs, lastSelectedSubId);
+    }
+
+    /**
+     * @return the input of a requester, null if it had none.
+     */
+    ONSConfigInput getInput(Requester requester) {
+        return mInputs[requester.ordinal()];
+    }
+
+    int getLastSelectedSubId() {
+        return mLastSelectedSubId;
+    }
+
+    PersistableBundle toBundle() {
+        PersistableBundle b = new PersistableBundle();
+        b.putInt(KEY_VERSION, VERSION);
+        b.putInt(KEY_LAST_SELECTED_SUB_ID, mLastSelectedSubId);
+        for (Requester requester : REQUESTERS) {
+            ONSConfigInput input = mInputs[requester.ordinal()];
+            if (input != null && input.getAvailableNetworkInfos() != null) {
+                b.putPersistableBundle(KEY_REQUESTER_PREFIX + requester.name(), toBundle(input));
+            }
+        }
+        return b;
+    }
+
+    /**
+     * @return the snapshot stored in the bundle, null if the bundle is of another version.
+     */
+    static ONSStateSnapshot fromBundle(PersistableBundle b) {
+        if (b == null || b.getInt(KEY_VERSION) != VERSION) {
+            return null;
+        }
+        ONSConfigInput[] inputs = new ONSConfigInput[REQUESTERS.length];
+        for (Requester requester : REQUESTERS) {
+            PersistableBundle input = b.getPersistableBundle(
+                    KEY_REQUESTER_PREFIX + requester.name());
+            if (input != null) {
+                inputs[requester.ordinal()] = toConfigInput(input);
+            }
+        }
+        return new ONSStateSnapshot(inputs, b.getInt(KEY_LAST_SELECTED_SUB_ID,
+                SubscriptionManager.INVALID_SUBSCRIPTION_ID));
+    }
+
+    private static PersistableBundle toBundle(ONSConfigInput input) {
+        PersistableBundle b = new PersistableBundle();
+        b.putInt(KEY_PRIMARY_SUB, input.getPrimarySub());
+        b.putInt(KEY_PREFERRED_DATA_SUB, input.getPreferredDataSub());
+        List<AvailableNetworkInfo> availableNetworks = input.getAvailableNetworkInfos();
+        b.putInt(KEY_NETWORK_COUNT, availableNetworks.size());
+        for (int i = 0; i < availableNetworks.size(); i++) {
+            b.putPersistableBundle(KEY_NETWORK_PREFIX + i, toBundle(availableNetworks.get(i)));
+        }
+        return b;
+    }
+
+    private static ONSConfigInput toConfigInput(PersistableBundle b) {
+        int count = b.getInt(KEY_NETWORK_COUNT);
+        ArrayList<AvailableNetworkInfo> availableNetworks = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            PersistableBundle network = b.getPersistableBundle(KEY_NETWORK_PREFIX + i);
+            if (network != null) {
+                availableNetworks.add(toAvailableNetworkInfo(network));
+            }
+        }
+        ONSConfigInput input = new ONSConfigInput(availableNetworks, null);
+        input.setPrimarySub(b.getInt(KEY_PRIMARY_SUB,
+                SubscriptionManager.INVALID_SUBSCRIPTION_ID));
+        input.setPreferredDataSub(b.getInt(KEY_PREFERRED_DATA_SUB,
+                SubscriptionManager.INVALID_SUBSCRIPTION_ID));
+        return input;
+    }
+
+    private static PersistableBundle toBundle(AvailableNetworkInfo availableNetwork) {
+        PersistableBundle b = new PersistableBundle();
+        b.putInt(KEY_SUB_ID, availableNetwork.getSubId());
+        b.putInt(KEY_PRIORITY, availableNetwork.getPriority());
+        b.putStringArray(KEY_MCC_MNCS, availableNetwork.getMccMncs().toArray(new String[0]));
+        List<Integer> bands = availableNetwork.getBands();
+        int[] bandArray = new int[bands.size()];
+        for (int i = 0; i < bandArray.length; i++) {
+            bandArray[i] = bands.get(i);
+        }
+        b.putIntArray(KEY_BANDS, bandArray);
+        List<RadioAccessSpecifier> radioAccessSpecifiers =
+                availableNetwork.getRadioAccessSpecifiers();
+        b.putInt(KEY_RAS_COUNT, radioAccessSpecifiers.size());
+        for (int i = 0; i < radioAccessSpecifiers.size(); i++) {
+            RadioAccessSpecifier ras = radioAccessSpecifiers.get(i);
+            PersistableBundle rasBundle = new PersistableBundle();
+            rasBundle.putInt(KEY_RAN, ras.getRadioAccessNetwork());
+            rasBundle.putIntArray(KEY_BANDS, ras.getBands());
+            rasBundle.putIntArray(KEY_CHANNELS, ras.getChannels());
+            b.putPersistableBundle(KEY_RAS_PREFIX + i, rasBundle);
+        }
+        return b;
+    }
+
+    private static AvailableNetworkInfo toAvailableNetworkInfo(PersistableBundle b) {
+        int subId = b.getInt(KEY_SUB_ID, SubscriptionManager.INVALID_SUBSCRIPTION_ID);
+        int priority = b.getInt(KEY_PRIORITY, AvailableNetworkInfo.PRIORITY_LOW);
+        String[] mccMncs = b.getStringArray(KEY_MCC_MNCS);
+        List<String> mccMncList = mccMncs == null
+                ? new ArrayList<String>() : new ArrayList<String>(Arrays.asList(mccMncs));
+        int count = b.getInt(KEY_RAS_COUNT);
+        if (count > 0) {
+            ArrayList<RadioAccessSpecifier> radioAccessSpecifiers = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                PersistableBundle ras = b.getPersistableBundle(KEY_RAS_PREFIX + i);
+                if (ras != null) {
+                    radioAccessSpecifiers.add(new RadioAccessSpecifier(ras.getInt(KEY_RAN),
+                            ras.getIntArray(KEY_BANDS), ras.getIntArray(KEY_CHANNELS)));
+                }
+            }
+            return new AvailableNetworkInfo.Builder()
+                    .setSubId(subId)
+                    .setPriority(priority)
+                    .setMccMncs(new ArrayList<String>(mccMncList))
+                    .setRadioAccessSpecifiers(radioAccessSpecifiers)
+                    .build();
+        }
+        ArrayList<Integer> bands = new ArrayList<>();
+        int[] bandArray = b.getIntArray(KEY_BANDS);
+        if (bandArray != null) {
+            for (int band : bandArray) {
+                bands.add(band);
+            }
+        }
+        return new AvailableNetworkInfo(subId, priority, mccMncList, bands);
+    }
+}
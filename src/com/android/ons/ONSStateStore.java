@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ons;
+
+import android.content.Context;
+import android.os.PersistableBundle;
+import android.util.AtomicFile;
+
+import com.android.internal.annotations.VisibleForTesting;
+import com.android.telephony.Rlog;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stores the ONS state snapshot in device protected storage, so it is readable before the
+ * user unlocks the device.
+ * Writes are made on the background executor and coalesced: a burst of changes results in a
+ * single write of the latest snapshot.
+ */
+class ONSStateStore {
+    private static final String LOG_TAG = "ONSStateStore";
+    private static final String FILE_NAME = "ons_state.xml";
+    @VisibleForTesting
+    static final long WRITE_DELAY_MS = 1000;
+
+    private final Object mLock = new Object();
+    private final AtomicFile mFile;
+    /* guarded by mLock */
+    private ONSStateSnapshot mPendingSnapshot;
+    private final ScheduledExecutorService mExecutor;
+
+    /**
+     * @param executor executor the writes are made on, owned by the caller.
+     */
+    ONSStateStore(Context context, ScheduledExecutorService executor) {
+        this(new File(context.createDeviceProtectedStorageContext().getFilesDir(), FILE_NAME),
+                executor);
+    }
+
+    @VisibleForTesting
+    ONSStateStore(File file, ScheduledExecutorService executor) {
+        mFile = new AtomicFile(file);
+        mExecutor = executor;
+    }
+
+    /**
+     * @return the stored snapshot, null if there is none or it cannot be read.
+     */
+    ONSStateSnapshot read() {
+        try (FileInputStream in = mFile.openRead()) {
+            return ONSStateSnapshot.fromBundle(PersistableBundle.readFromStream(in));
+        } catch (IOException | RuntimeException e) {
+            Rlog.d(LOG_TAG, "no state restored: " + e);
+            return null;
+        }
+    }
+
+    /**
+     * schedule a write of the snapshot, replacing any snapshot not written yet. The snapshot
+     * is dropped once the executor was shut down.
+     */
+    void write(ONSStateSnapshot snapshot) {
+        synchronized (mLock) {
+            boolean scheduled = mPendingSnapshot != null;
+            mPendingSnapshot = snapshot;
+            if (scheduled) {
+                return;
+            }
+            try {
+                mExecutor.schedule(this::writePending, WRITE_DELAY_MS, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                Rlog.d(LOG_TAG, "state not written, the service is going away");
+                mPendingSnapshot = null;
+            }
+        }
+    }
+
+    @VisibleForTesting
+    void writePending() {
+        ONSStateSnapshot snapshot;
+        synchronized (mLock) {
+            snapshot = mPendingSnapshot;
+            mPendingSnapshot = null;
+        }
+        if (snapshot == null) {
+            return;
+        }
+        FileOutputStream out = null;
+        try {
+            out = mFile.startWrite();
+            snapshot.toBundle().writeToStream(out);
+            mFile.finishWrite(out);
+        } catch (IOException e) {
+            Rlog.d(LOG_TAG, "failed to write state: " + e);
+            if (out != null) {
+                mFile.failWrite(out);
+            }
+        }
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ons;
+
+import android.telephony.AvailableNetworkInfo;
+import android.telephony.SubscriptionInfo;
+import android.util.SparseArray;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Immutable snapshot of the opportunistic subscriptions, indexed by subscription id.
+ * Standalone opportunistic subscriptions are the ones without a group UUID. A new snapshot is
+ * published whenever the opportunistic subscriptions change so binder threads can query it
+ * without locking.
+ */
+final class ONSSubscriptionIndex {
+    private final List<SubscriptionInfo> mOppSubscriptionInfos;
+    private final List<SubscriptionInfo> mStandaloneOppSubInfos;
+    private final SparseArray<SubscriptionInfo> mOppSubs;
+    private final SparseArray<SubscriptionInfo> mStandaloneOppSubs;
+
+    private ONSSubscriptionIndex(List<SubscriptionInfo> oppSubscriptionInfos,
+            List<SubscriptionInfo> standaloneOppSubInfos, SparseArray<SubscriptionInfo> oppSubs,
+            SparseArray<SubscriptionInfo> standaloneOppSubs) {
+        mOppSubscriptionInfos = oppSubscriptionInfos;
+        mStandaloneOppSubInfos = standaloneOppSubInfos;
+        mOppSubs = oppSubs;
+        mStandaloneOppSubs = standaloneOppSubs;
+    }
+
+    /**
+     * @param opportunisticSubscriptions opportunistic subscriptions as reported by
+     *                                   SubscriptionManager. Subscriptions of a disabled group
+     *                                   are left out.
+     */
+    static ONSSubscriptionIndex from(List<SubscriptionInfo> opportunisticSubscriptions) {
+        List<SubscriptionInfo> oppSubscriptionInfos = new ArrayList<SubscriptionInfo>();
+        List<SubscriptionInfo> standaloneOppSubInfos = new ArrayList<SubscriptionInfo>();
+        SparseArray<SubscriptionInfo> oppSubs = new SparseArray<SubscriptionInfo>();
+        SparseArray<SubscriptionInfo> standaloneOppSubs = new SparseArray<SubscriptionInfo>();
+        if (opportunisticSubscriptions != null) {
+            for (SubscriptionInfo subInfo : opportunisticSubscriptions) {
+                if (subInfo.isGroupDisabled()) {
+                    continue;
+                }
+                oppSubscriptionInfos.add(subInfo);
+                oppSubs.put(subInfo.getSubscriptionId(), subInfo);
+                if (subInfo.getGroupUuid() == null) {
+                    standaloneOppSubInfos.add(subInfo);
+                    standaloneOppSubs.put(subInfo.getSubscriptionId(), subInfo);
+                }
+            }
+        }
+        return new ONSSubscriptionIndex(Collections.unmodifiableList(oppSubscriptionInfos),
+                Collections.unmodifiableList(standaloneOppSubInfos), oppSubs, standaloneOppSubs);
+    }
+
+    /**
+     * @return opportunistic subscriptions, unmodifiable.
+     */
+    List<SubscriptionInfo> getOpportunisticSubscriptions() {
+        return mOppSubscriptionInfos;
+    }
+
+    /**
+     * @return standalone opportunistic subscriptions, unmodifiable.
+     */
+    List<SubscriptionInfo> getStandaloneOpportunisticSubscriptions() {
+        return mStandaloneOppSubInfos;
+    }
+
+    SubscriptionInfo getOpportunisticSubscription(int subId) {
+        return mOppSubs.get(subId);
+    }
+
+    boolean isOpportunistic(int subId) {
+        return mOppSubs.indexOfKey(subId) >= 0;
+    }
+
+    boolean isStandaloneOpportunistic(int subId) {
+        return mStandaloneOppSubs.indexOfKey(subId) >= 0;
+    }
+
+    /**
+     * @return available networks of opportunistic subscriptions, in the order of
+     * availableNetworks. The given list is not modified.
+     */
+    ArrayList<AvailableNetworkInfo> filterOpportunistic(
+            List<AvailableNetworkInfo> availableNetworks) {
+        ArrayList<AvailableNetworkInfo> filteredAvailableNetworks =
+                new ArrayList<AvailableNetworkInfo>(availableNetworks.size());
+        for (AvailableNetworkInfo availableNetworkInfo : availableNetworks) {
+            if (isOpportunistic(availableNetworkInfo.getSubId())) {
+                filteredAvailableNetworks.add(availableNetworkInfo);
+            }
+        }
+        return filteredAvailableNetworks;
+    }
+
+    /**
+     * @return true if every available network is an opportunistic subscription.
+     */
+    boolean containsAllOpportunistic(List<AvailableNetworkInfo> availableNetworks) {
+        for (AvailableNetworkInfo availableNetworkInfo : availableNetworks) {
+            if (!isOpportunistic(availableNetworkInfo.getSubId())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return true if any available network is an opportunistic subscription.
+     */
+    boolean containsAnyOpportunistic(List<AvailableNetworkInfo> availableNetworks) {
+        for (AvailableNetworkInfo availableNetworkInfo : availableNetworks) {
+            if (isOpportunistic(availableNetworkInfo.getSubId())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return true if any available network is a standalone opportunistic subscription.
+     */
+    boolean containsAnyStandaloneOpportunistic(List<AvailableNetworkInfo> availableNetworks) {
+        for (AvailableNetworkInfo availableNetworkInfo : availableNetworks) {
+            if (isStandaloneOpportunistic(availableNetworkInfo.getSubId())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    int size() {
+        return mOppSubs.size();
+    }
+
+    int getStandaloneSize() {
+        return mStandaloneOppSubs.size();
+    }
+}
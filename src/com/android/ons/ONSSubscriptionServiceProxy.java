@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ons;
+
+import android.os.IBinder;
+import android.os.RemoteException;
+import android.telephony.TelephonyFrameworkInitializer;
+
+import com.android.internal.annotations.VisibleForTesting;
+import com.android.internal.telephony.ISetOpportunisticDataCallback;
+import com.android.internal.telephony.ISub;
+import com.android.telephony.Rlog;
+
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+
+/**
+ * Cached handle on the subscription service, along with a dispatcher for the calls the
+ * profile selector makes on it.
+ * The ISub proxy is resolved once and dropped when the phone process dies, the next call
+ * resolves it again. Calls are made on the background executor so that a slow subscription
+ * service never blocks the profile selector loop.
+ */
+class ONSSubscriptionServiceProxy implements IBinder.DeathRecipient {
+    private static final String LOG_TAG = "ONSSubscriptionServiceProxy";
+
+    private final Object mLock = new Object();
+    /* guarded by mLock */
+    private ISub mISub;
+    private final Executor mExecutor;
+
+    /**
+     * @param executor executor the calls are made on, owned by the caller.
+     */
+    ONSSubscriptionServiceProxy(Executor executor) {
+        mExecutor = executor;
+    }
+
+    /**
+     * @return the subscription service, resolved on first use. null if it is not available.
+     */
+    @VisibleForTesting
+    ISub getISub() {
+        synchronized (mLock) {
+            if (mISub != null) {
+                return mISub;
+            }
+            IBinder binder = TelephonyFrameworkInitializer
+                    .getTelephonyServiceManager()
+                    .getSubscriptionServiceRegisterer()
+                    .get();
+            if (binder == null) {
+                return null;
+            }
+            try {
+                binder.linkToDeath(this, 0);
+            } catch (RemoteException ex) {
+                Rlog.d(LOG_TAG, "Subscription Service died while resolving it");
+                return null;
+            }
+            mISub = ISub.Stub.asInterface(binder);
+            return mISub;
+        }
+    }
+
+    @Override
+    public void binderDied() {
+        Rlog.d(LOG_TAG, "Subscription Service died");
+        synchronized (mLock) {
+            mISub = null;
+        }
+    }
+
+    /**
+     * set the preferred data subscription from the background executor.
+     * @param onSent called on the background executor with true once the subscription service
+     *               took the request, false if the service could not be reached. The callback
+     *               is not answered in that case.
+     */
+    void setPreferredDataSubscriptionId(int subId, boolean needValidation,
+            ISetOpportunisticDataCallback callback, Consumer<Boolean> onSent) {
+        mExecutor.execute(() -> onSent.accept(
+                setPreferredDataSubscriptionIdNow(subId, needValidation, callback)));
+    }
+
+    /**
+     * set the preferred data subscription on the calling thread, for callers which must not go
+     * on before the subscription service took the request.
+     * @return true once the subscription service took the request, false if the service could
+     * not be reached. The callback is not answered in that case.
+     */
+    boolean setPreferredDataSubscriptionIdNow(int subId, boolean needValidation,
+            ISetOpportunisticDataCallback callback) {
+        ISub iSub = getISub();
+        if (iSub == null) {
+            Rlog.d(LOG_TAG, "Could not get Subscription Service handle");
+            return false;
+        }
+        try {
+            iSub.setPreferredDataSubscriptionId(subId, needValidation, callback);
+        } catch (RemoteException ex) {
+            Rlog.d(LOG_TAG, "Could not connect to Subscription Service");
+            return false;
+        }
+        return true;
+    }
+}
@@ -30,10 +30,12 @@ import android.os.Binder;
 import android.os.Build;
 import android.os.Handler;
 import android.os.IBinder;
+import android.os.Looper;
 import android.os.Message;
 import android.os.RemoteException;
 import android.os.TelephonyServiceManager.ServiceRegisterer;
 import android.telephony.AvailableNetworkInfo;
+import android.telephony.CarrierConfigManager;
 import android.telephony.SubscriptionInfo;
 import android.telephony.SubscriptionManager;
 import android.telephony.TelephonyFrameworkInitializer;
@@ -45,11 +47,18 @@ import com.android.internal.telephony.ISetOpportunisticDataCallback;
 import com.android.internal.telephony.IUpdateAvailableNetworksCallback;
 import com.android.internal.telephony.TelephonyIntents;
 import com.android.internal.telephony.TelephonyPermissions;
+import com.android.ons.ONSRequesterRegistry.Requester;
 import com.android.telephony.Rlog;
 
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.EnumMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 
 /**
  * OpportunisticNetworkService implements ions.
@@ -61,20 +70,36 @@ public class OpportunisticNetworkService extends Service {
     private TelephonyManager mTelephonyManager;
     @VisibleForTesting protected SubscriptionManager mSubscriptionManager;
 
+    /* guards the requester registry, the selecting requester and the saved state. Held for
+       in-process work only, binder calls are made outside of it since the event loop takes it
+       as well. */
     private final Object mLock = new Object();
     @VisibleForTesting protected boolean mIsEnabled;
     @VisibleForTesting protected ONSProfileSelector mProfileSelector;
     private SharedPreferences mSharedPref;
-    @VisibleForTesting protected HashMap<String, ONSConfigInput> mONSConfigInputHashMap;
+    @VisibleForTesting protected ONSRequesterRegistry mRequesterRegistry;
+    @VisibleForTesting protected ONSStateStore mStateStore;
+    /* requester whose input drives the ongoing profile selection, null if none */
+    private Requester mSelectingRequester;
+    /* opportunistic subscription last enabled by the profile selector, written under mLock */
+    private volatile int mLastSelectedSubId = SubscriptionManager.INVALID_SUBSCRIPTION_ID;
 
     private static final String TAG = "ONS";
     private static final String PREF_NAME = TAG;
     private static final String PREF_ENABLED = "isEnabled";
-    private static final String CARRIER_APP_CONFIG_NAME = "carrierApp";
-    private static final String SYSTEM_APP_CONFIG_NAME = "systemApp";
     private static final boolean DBG = true;
     /* message to indicate sim state update */
     private static final int MSG_SIM_STATE_CHANGE = 1;
+    /* SIM state broadcasts come in bursts on boot and hot swap, handle the last one only */
+    private static final long SIM_STATE_CHANGE_COALESCE_MS = 500;
+
+    /* active subscriptions seen by the last SIM state change, and the carrier app input they
+       were checked against. Guarded by mLock. */
+    private int[] mLastActiveSubIds;
+    private ONSConfigInput mLastCheckedCarrierAppConfigInput;
+
+    /* carrier privilege grants of the binder callers */
+    private final ONSPermissionCache mPermissionCache = new ONSPermissionCache();
 
     /**
      * To expand the error codes for {@link TelephonyManager#updateAvailableNetworks} and
@@ -95,32 +120,61 @@ public class OpportunisticNetworkService extends Service {
                 public void onProfileSelectionDone() {
                     logDebug("profile selection done");
                 }
+
+                @Override
+                public void onProfileSelected(int subId) {
+                    synchronized (mLock) {
+                        if (mLastSelectedSubId != subId) {
+                            mLastSelectedSubId = subId;
+                            saveState();
+                        }
+                    }
+                }
             };
 
     /** Broadcast receiver to get SIM card state changed event */
     private final BroadcastReceiver mBroadcastReceiver = new BroadcastReceiver() {
         @Override
         public void onReceive(Context context, Intent intent) {
-            mHandler.sendEmptyMessage(MSG_SIM_STATE_CHANGE);
+            mPermissionCache.invalidate();
+            mHandler.removeMessages(MSG_SIM_STATE_CHANGE);
+            mHandler.sendEmptyMessageDelayed(MSG_SIM_STATE_CHANGE, SIM_STATE_CHANGE_COALESCE_MS);
         }
     };
 
-    private Handler mHandler = new Handler() {
+    /** Carrier config and package changes may change the carrier privileges of the callers */
+    private final BroadcastReceiver mPermissionChangedReceiver = new BroadcastReceiver() {
         @Override
-        public void handleMessage(Message msg) {
-            switch (msg.what) {
-                case MSG_SIM_STATE_CHANGE:
-                    synchronized (mLock) {
-                        handleSimStateChange();
-                    }
-                    break;
-                default:
-                    log("invalid message");
-                    break;
-            }
+        public void onReceive(Context context, Intent intent) {
+            logDebug("permission cache invalidated on " + intent.getAction());
+            mPermissionCache.invalidate();
         }
     };
 
+    private SubscriptionManager.OnSubscriptionsChangedListener mSubscriptionsChangedListener;
+
+    /* serial event loop shared with the profile selector and the network scan controller */
+    private ONSEventLoop mEventLoop;
+    private Handler mHandler;
+    /* runs the binder calls, callback deliveries and file writes kept off the event loop */
+    private ScheduledExecutorService mBackgroundExecutor;
+
+    private Handler createHandler(Looper looper) {
+        return new Handler(looper) {
+            @Override
+            public void handleMessage(Message msg) {
+                switch (msg.what) {
+                    case MSG_SIM_STATE_CHANGE:
+                        handleSimStateChange();
+                        break;
+                    default:
+                        log("invalid message");
+                        break;
+                }
+            }
+        };
+    }
+
     private static boolean enforceModifyPhoneStatePermission(Context context) {
         if (context.checkCallingOrSelfPermission(android.Manifest.permission.MODIFY_PHONE_STATE)
                 == PackageManager.PERMISSION_GRANTED) {
@@ -130,12 +184,42 @@ public class OpportunisticNetworkService extends Service {
         return false;
     }
 
+    /**
+     * check whether the caller is a system app. A caller holding a cached carrier privilege
+     * grant on the default subscription is known not to be one, such grants are only taken
+     * for callers without MODIFY_PHONE_STATE.
+     */
+    private boolean isSystemCaller(int callingUid, String callingPackage) {
+        if (mPermissionCache.isGranted(ONSPermissionCache.CHECK_CARRIER_PRIVILEGE, callingUid,
+                callingPackage, mSubscriptionManager.getDefaultSubscriptionId())) {
+            return false;
+        }
+        return enforceModifyPhoneStatePermission(mContext);
+    }
+
+    /**
+     * enforce carrier privilege of the caller on a subscription, reusing a previous grant.
+     * Throws SecurityException if the caller has no carrier privilege.
+     */
+    private void enforceCarrierPrivilege(int callingUid, String callingPackage, int subId,
+            String message) {
+        if (mPermissionCache.isGranted(ONSPermissionCache.CHECK_CARRIER_PRIVILEGE, callingUid,
+                callingPackage, subId)) {
+            return;
+        }
+        long generation = mPermissionCache.getGeneration();
+        TelephonyPermissions.enforceCallingOrSelfCarrierPrivilege(mContext, subId, message);
+        mPermissionCache.grant(ONSPermissionCache.CHECK_CARRIER_PRIVILEGE, callingUid,
+                callingPackage, subId, generation);
+    }
+
     @VisibleForTesting
     protected void handleSimStateChange() {
         logDebug("SIM state changed");
-        ONSConfigInput carrierAppConfigInput = mONSConfigInputHashMap.get(CARRIER_APP_CONFIG_NAME);
-        if (carrierAppConfigInput == null) {
-            return;
+        synchronized (mLock) {
+            if (mRequesterRegistry.get(Requester.CARRIER_APP) == null) {
+                return;
+            }
         }
         List<SubscriptionInfo> subscriptionInfos =
             mSubscriptionManager.getActiveSubscriptionInfoList(false);
@@ -144,25 +228,104 @@ public class OpportunisticNetworkService extends Service {
         }
 
         logDebug("handleSimStateChange: subscriptionInfos - " + subscriptionInfos);
-        for (SubscriptionInfo subscriptionInfo : subscriptionInfos) {
-            if (subscriptionInfo.getSubscriptionId() == carrierAppConfigInput.getPrimarySub()) {
-                return;
-            }
+        int[] activeSubIds = new int[subscriptionInfos.size()];
+        for (int i = 0; i < activeSubIds.length; i++) {
+            activeSubIds[i] = subscriptionInfos.get(i).getSubscriptionId();
+        }
+        Arrays.sort(activeSubIds);
+        synchronized (mLock) {
+            updateCarrierAppInputOnSimStateChange(activeSubIds);
+        }
+    }
+
+    /* drop the carrier app input once its primary subscription is no longer active */
+    private void updateCarrierAppInputOnSimStateChange(int[] activeSubIds) {
+        ONSConfigInput carrierAppConfigInput = mRequesterRegistry.get(Requester.CARRIER_APP);
+        if (carrierAppConfigInput == null) {
+            return;
+        }
+        if (carrierAppConfigInput == mLastCheckedCarrierAppConfigInput
+                && Arrays.equals(activeSubIds, mLastActiveSubIds)) {
+            logDebug("active subscriptions unchanged");
+            return;
+        }
+        mLastActiveSubIds = activeSubIds;
+        mLastCheckedCarrierAppConfigInput = carrierAppConfigInput;
+        if (Arrays.binarySearch(activeSubIds, carrierAppConfigInput.getPrimarySub()) >= 0) {
+            return;
         }
 
         logDebug("Carrier subscription is not available, removing entry");
-        mONSConfigInputHashMap.put(CARRIER_APP_CONFIG_NAME, null);
+        mRequesterRegistry.clear(Requester.CARRIER_APP);
+        saveState();
         if (!mIsEnabled) {
             return;
         }
-        if (mONSConfigInputHashMap.get(SYSTEM_APP_CONFIG_NAME) != null) {
-            mProfileSelector.startProfileSelection(
-                    mONSConfigInputHashMap.get(SYSTEM_APP_CONFIG_NAME).getAvailableNetworkInfos(),
-                    mONSConfigInputHashMap.get(
-                            SYSTEM_APP_CONFIG_NAME).getAvailableNetworkCallback());
+        Requester fallback = mRequesterRegistry.arbitrate(this::hasStandaloneOppSubs);
+        if (fallback != null) {
+            startProfileSelection(fallback);
         }
     }
 
+    private boolean hasStandaloneOppSubs(ONSConfigInput input) {
+        return mProfileSelector.containStandaloneOppSubs(input.getAvailableNetworkInfos());
+    }
+
+    /* start the profile selection for the input of a requester */
+    private void startProfileSelection(Requester requester) {
+        ONSConfigInput input = mRequesterRegistry.get(requester);
+        startProfileSelection(requester, input.getAvailableNetworkInfos(),
+                input.getAvailableNetworkCallback());
+    }
+
+    private void startProfileSelection(Requester requester,
+            ArrayList<AvailableNetworkInfo> availableNetworks,
+            IUpdateAvailableNetworksCallback callbackStub) {
+        logDebug("start profile selection for " + requester);
+        mSelectingRequester = requester;
+        mProfileSelector.startProfileSelection(availableNetworks, callbackStub);
+    }
+
+    private void stopProfileSelection(IUpdateAvailableNetworksCallback callbackStub) {
+        mSelectingRequester = null;
+        mProfileSelector.stopProfileSelection(callbackStub);
+    }
+
+    /**
+     * an identical re-post of the requester driving the selection needs neither arbitration
+     * nor a restart, the profile selector hands the outcome to the latest callback. The
+     * fingerprints are compared first, see ONSConfigInput.
+     */
+    private boolean isRepostOfSelectingRequester(Requester requester, ONSConfigInput previous,
+            ONSConfigInput input) {
+        return mIsEnabled && mSelectingRequester == requester && previous != null
+                && previous.getPrimarySub() == input.getPrimarySub()
+                && previous.hasSameAvailableNetworks(input.getAvailableNetworkInfos(),
+                        input.getFingerprint());
+    }
+
+    /**
+     * a requester withdrew its input, the winner among the remaining requesters takes over.
+     * Profile selection stops if none is left.
+     */
+    private void onRequesterWithdrawn(Requester requester,
+            IUpdateAvailableNetworksCallback callbackStub) {
+        synchronized (mLock) {
+            mRequesterRegistry.clear(requester);
+            saveState();
+            if (mIsEnabled) {
+                Requester fallback = mRequesterRegistry.arbitrate(this::hasStandaloneOppSubs);
+                if (fallback == null) {
+                    stopProfileSelection(callbackStub);
+                    return;
+                }
+                startProfileSelection(fallback);
+            }
+        }
+        sendUpdateNetworksCallbackHelper(callbackStub,
+                TelephonyManager.UPDATE_AVAILABLE_NETWORKS_SUCCESS);
+    }
+
     private boolean hasOpportunisticSubPrivilege(String callingPackage, int subId) {
         return mTelephonyManager.hasCarrierPrivileges(subId)
                 || mSubscriptionManager.canManageSubscription(
@@ -240,15 +403,21 @@ public class OpportunisticNetworkService extends Service {
         public void setPreferredDataSubscriptionId(int subId, boolean needValidation,
                 ISetOpportunisticDataCallback callbackStub, String callingPackage) {
             logDebug("setPreferredDataSubscriptionId subId:" + subId + "callingPackage: " + callingPackage);
-            if (!enforceModifyPhoneStatePermission(mContext)) {
-                TelephonyPermissions.enforceCallingOrSelfCarrierPrivilege(mContext,
-                        mSubscriptionManager.getDefaultSubscriptionId(), "setPreferredDataSubscriptionId");
+            int callingUid = Binder.getCallingUid();
+            if (!isSystemCaller(callingUid, callingPackage)) {
+                enforceCarrierPrivilege(callingUid, callingPackage,
+                        mSubscriptionManager.getDefaultSubscriptionId(),
+                        "setPreferredDataSubscriptionId");
                 if (subId != SubscriptionManager.INVALID_SUBSCRIPTION_ID) {
-                    TelephonyPermissions.enforceCallingOrSelfCarrierPrivilege(mContext, subId,
+                    enforceCarrierPrivilege(callingUid, callingPackage, subId,
                             "setPreferredDataSubscriptionId");
                 }
             } else {
-                if (mONSConfigInputHashMap.get(CARRIER_APP_CONFIG_NAME) != null) {
+                ONSConfigInput carrierAppConfigInput;
+                synchronized (mLock) {
+                    carrierAppConfigInput = mRequesterRegistry.get(Requester.CARRIER_APP);
+                }
+                if (carrierAppConfigInput != null) {
                     sendSetOpptCallbackHelper(callbackStub,
                         TelephonyManager.SET_OPPORTUNISTIC_SUB_VALIDATION_FAILED);
                     return;
@@ -311,13 +480,14 @@ public class OpportunisticNetworkService extends Service {
         public void updateAvailableNetworks(List<AvailableNetworkInfo> availableNetworks,
                 IUpdateAvailableNetworksCallback callbackStub, String callingPackage) {
             logDebug("updateAvailableNetworks: " + availableNetworks);
+            int callingUid = Binder.getCallingUid();
             /* check if system app */
-            if (enforceModifyPhoneStatePermission(mContext)) {
+            if (isSystemCaller(callingUid, callingPackage)) {
                 handleSystemAppAvailableNetworks(
                         (ArrayList<AvailableNetworkInfo>) availableNetworks, callbackStub);
             } else {
                 /* check if the app has primary carrier permission */
-                TelephonyPermissions.enforceCallingOrSelfCarrierPrivilege(mContext,
+                enforceCarrierPrivilege(callingUid, callingPackage,
                         mSubscriptionManager.getDefaultSubscriptionId(), "updateAvailableNetworks");
                 handleCarrierAppAvailableNetworks(
                         (ArrayList<AvailableNetworkInfo>) availableNetworks, callbackStub,
@@ -370,10 +540,29 @@ public class OpportunisticNetworkService extends Service {
     @Override
     public void onDestroy() {
         super.onDestroy();
+        if (mProfileSelector != null) {
+            mProfileSelector.dispose();
+        }
+        if (mEventLoop != null) {
+            mEventLoop.quitSafely();
+        }
+        if (mBackgroundExecutor != null) {
+            /* work already queued, a pending state write included, still runs */
+            mBackgroundExecutor.shutdown();
+        }
         log("Destroyed Successfully...");
 
     }
 
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter pw, String[] args) {
+        pw.println("OpportunisticNetworkService: enabled=" + mIsEnabled
+                + " selecting=" + mSelectingRequester);
+        if (mProfileSelector != null) {
+            mProfileSelector.dump(pw);
+        }
+    }
+
     /**
      * initialize ONS and register as service.
      * Read persistent state to update enable state
@@ -384,17 +573,50 @@ public class OpportunisticNetworkService extends Service {
     protected void initialize(Context context) {
         mContext = context;
         mTelephonyManager = TelephonyManager.from(mContext);
-        mProfileSelector = new ONSProfileSelector(mContext, mProfileSelectionCallback);
+        mEventLoop = new ONSEventLoop();
+        mHandler = createHandler(mEventLoop.getLooper());
+        mBackgroundExecutor = Executors.newSingleThreadScheduledExecutor(
+                runnable -> new Thread(runnable, "ONSBackground"));
+        mProfileSelector = new ONSProfileSelector(mContext, mProfileSelectionCallback,
+                mEventLoop.getLooper(), mBackgroundExecutor);
         mSharedPref = mContext.createDeviceProtectedStorageContext().getSharedPreferences(
                 PREF_NAME, Context.MODE_PRIVATE);
         mSubscriptionManager = (SubscriptionManager) mContext.getSystemService(
                 Context.TELEPHONY_SUBSCRIPTION_SERVICE);
-        mONSConfigInputHashMap = new HashMap<String, ONSConfigInput>();
+        mRequesterRegistry = new ONSRequesterRegistry();
+        mStateStore = new ONSStateStore(mContext, mBackgroundExecutor);
+        /* file and subscription service access, kept off the thread creating the service */
+        mBackgroundExecutor.execute(this::restoreState);
+        /* delivered on the event loop, not on the main thread of the phone process */
         mContext.registerReceiver(mBroadcastReceiver,
-            new IntentFilter(TelephonyIntents.ACTION_SIM_STATE_CHANGED));
+            new IntentFilter(TelephonyIntents.ACTION_SIM_STATE_CHANGED), null, mHandler);
+        registerPermissionChangeListeners();
         enableOpportunisticNetwork(getPersistentEnableState());
     }
 
+    /* carrier privileges derive from carrier config, subscriptions and installed packages */
+    private void registerPermissionChangeListeners() {
+        mContext.registerReceiver(mPermissionChangedReceiver,
+                new IntentFilter(CarrierConfigManager.ACTION_CARRIER_CONFIG_CHANGED), null,
+                mHandler);
+        IntentFilter packageFilter = new IntentFilter();
+        packageFilter.addAction(Intent.ACTION_PACKAGE_ADDED);
+        packageFilter.addAction(Intent.ACTION_PACKAGE_CHANGED);
+        packageFilter.addAction(Intent.ACTION_PACKAGE_REPLACED);
+        packageFilter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+        packageFilter.addDataScheme("package");
+        mContext.registerReceiver(mPermissionChangedReceiver, packageFilter, null, mHandler);
+        mSubscriptionsChangedListener = new SubscriptionManager.OnSubscriptionsChangedListener(
+                mEventLoop.getLooper()) {
+            @Override
+            public void onSubscriptionsChanged() {
+                mPermissionCache.invalidate();
+            }
+        };
+        mSubscriptionManager.addOnSubscriptionsChangedListener(mHandler::post,
+                mSubscriptionsChangedListener);
+    }
+
     private void handleCarrierAppAvailableNetworks(
             ArrayList<AvailableNetworkInfo> availableNetworks,
             IUpdateAvailableNetworksCallback callbackStub, String callingPackage) {
@@ -426,6 +648,7 @@ public class OpportunisticNetworkService extends Service {
                 return;
             }
 
+            int callingUid = Binder.getCallingUid();
             for (AvailableNetworkInfo availableNetworkInfo : availableNetworks) {
                 final long identity = Binder.clearCallingIdentity();
                 boolean isActiveSubId = false;
@@ -435,6 +658,14 @@ public class OpportunisticNetworkService extends Service {
                 } finally {
                     Binder.restoreCallingIdentity(identity);
                 }
+                int check = isActiveSubId ? ONSPermissionCache.CHECK_CARRIER_PRIVILEGE
+                        : ONSPermissionCache.CHECK_OPPORTUNISTIC_SUB_PRIVILEGE;
+                /* the privilege on this subscription was checked by a previous call */
+                if (mPermissionCache.isGranted(check, callingUid, callingPackage,
+                        availableNetworkInfo.getSubId())) {
+                    continue;
+                }
+                long generation = mPermissionCache.getGeneration();
                 if (isActiveSubId) {
                     TelephonyPermissions.enforceCallingOrSelfCarrierPrivilege(mContext,
                         availableNetworkInfo.getSubId(), "updateAvailableNetworks");
@@ -448,30 +679,45 @@ public class OpportunisticNetworkService extends Service {
                         return;
                     }
                 }
+                mPermissionCache.grant(check, callingUid, callingPackage,
+                        availableNetworkInfo.getSubId(), generation);
             }
 
             final long identity = Binder.clearCallingIdentity();
             try {
                 ONSConfigInput onsConfigInput = new ONSConfigInput(availableNetworks, callbackStub);
                 SubscriptionInfo subscriptionInfo = mSubscriptionManager.getDefaultVoiceSubscriptionInfo();
-                if (subscriptionInfo != null) {
-                    onsConfigInput.setPrimarySub(subscriptionInfo.getSubscriptionId());
-                    onsConfigInput.setPreferredDataSub(availableNetworks.get(0).getSubId());
-                    mONSConfigInputHashMap.put(CARRIER_APP_CONFIG_NAME, onsConfigInput);
-                }
-                /* standalone opportunistic subscription should be handled in priority. */
-                if (mONSConfigInputHashMap.get(SYSTEM_APP_CONFIG_NAME) != null) {
-                    if (mProfileSelector.containStandaloneOppSubs(mONSConfigInputHashMap.get(
-                            SYSTEM_APP_CONFIG_NAME).getAvailableNetworkInfos())) {
+                boolean isEnabled;
+                synchronized (mLock) {
+                    if (subscriptionInfo != null) {
+                        onsConfigInput.setPrimarySub(subscriptionInfo.getSubscriptionId());
+                        onsConfigInput.setPreferredDataSub(availableNetworks.get(0).getSubId());
+                        ONSConfigInput previous = mRequesterRegistry.get(Requester.CARRIER_APP);
+                        mRequesterRegistry.set(Requester.CARRIER_APP, onsConfigInput);
+                        if (isRepostOfSelectingRequester(Requester.CARRIER_APP, previous,
+                                onsConfigInput)) {
+                            logDebug("carrier app re-posted the same networks");
+                            mProfileSelector.startProfileSelection(availableNetworks,
+                                    callbackStub);
+                            return;
+                        }
+                        saveState();
+                    }
+                    /* standalone opportunistic subscription should be handled in priority. */
+                    if (mRequesterRegistry.arbitrate(this::hasStandaloneOppSubs,
+                            Requester.CARRIER_APP) != Requester.CARRIER_APP) {
                         log("standalone opportunistic subscription is using.");
                         return;
                     }
-                }
 
-                if (mIsEnabled) {
-                    /*  if carrier is reporting availability, then it takes higher priority. */
-                    mProfileSelector.startProfileSelection(availableNetworks, callbackStub);
-                } else {
+                    isEnabled = mIsEnabled;
+                    if (isEnabled) {
+                        /* if carrier is reporting availability, then it takes higher priority. */
+                        startProfileSelection(Requester.CARRIER_APP, availableNetworks,
+                                callbackStub);
+                    }
+                }
+                if (!isEnabled) {
                     if (Compatibility.isChangeEnabled(CALLBACK_ON_MORE_ERROR_CODE_CHANGE)) {
                         sendUpdateNetworksCallbackHelper(callbackStub,
                                 TelephonyManager.UPDATE_AVAILABLE_NETWORKS_SERVICE_IS_DISABLED);
@@ -486,25 +732,9 @@ public class OpportunisticNetworkService extends Service {
         } else {
             final long identity = Binder.clearCallingIdentity();
             try {
-                mONSConfigInputHashMap.put(CARRIER_APP_CONFIG_NAME, null);
-                if (!mIsEnabled) {
-                    sendUpdateNetworksCallbackHelper(callbackStub,
-                        TelephonyManager.UPDATE_AVAILABLE_NETWORKS_SUCCESS);
-                    return;
-                }
                 /* if carrier is reporting unavailability, then decide whether to start
                    system app request or not. */
-                if (mONSConfigInputHashMap.get(SYSTEM_APP_CONFIG_NAME) != null) {
-                    sendUpdateNetworksCallbackHelper(callbackStub,
-                            TelephonyManager.UPDATE_AVAILABLE_NETWORKS_SUCCESS);
-                    mProfileSelector.startProfileSelection(
-                            mONSConfigInputHashMap.get(SYSTEM_APP_CONFIG_NAME)
-                                    .getAvailableNetworkInfos(),
-                            mONSConfigInputHashMap.get(
-                                    SYSTEM_APP_CONFIG_NAME).getAvailableNetworkCallback());
-                } else {
-                    mProfileSelector.stopProfileSelection(callbackStub);
-                }
+                onRequesterWithdrawn(Requester.CARRIER_APP, callbackStub);
             } finally {
                 Binder.restoreCallingIdentity(identity);
             }
@@ -548,16 +778,28 @@ public class OpportunisticNetworkService extends Service {
                     }
                     return;
                 }
-                mONSConfigInputHashMap.put(SYSTEM_APP_CONFIG_NAME,
-                        new ONSConfigInput(availableNetworks, callbackStub));
-                /* reporting availability. proceed if carrier app has not requested any, but
-                   standalone opportunistic subscription should be handled in priority. */
-                if (mIsEnabled) {
-                    if (mONSConfigInputHashMap.get(CARRIER_APP_CONFIG_NAME) == null
-                            || mProfileSelector.containStandaloneOppSubs(availableNetworks)) {
+                ONSConfigInput onsConfigInput = new ONSConfigInput(availableNetworks, callbackStub);
+                boolean isEnabled;
+                synchronized (mLock) {
+                    ONSConfigInput previous = mRequesterRegistry.get(Requester.SYSTEM_APP);
+                    mRequesterRegistry.set(Requester.SYSTEM_APP, onsConfigInput);
+                    if (isRepostOfSelectingRequester(Requester.SYSTEM_APP, previous,
+                            onsConfigInput)) {
+                        logDebug("system app re-posted the same networks");
                         mProfileSelector.startProfileSelection(availableNetworks, callbackStub);
+                        return;
                     }
-                } else {
+                    saveState();
+                    /* reporting availability. proceed if carrier app has not requested any, but
+                       standalone opportunistic subscription should be handled in priority. */
+                    isEnabled = mIsEnabled;
+                    if (isEnabled && mRequesterRegistry.arbitrate(this::hasStandaloneOppSubs)
+                            == Requester.SYSTEM_APP) {
+                        startProfileSelection(Requester.SYSTEM_APP, availableNetworks,
+                                callbackStub);
+                    }
+                }
+                if (!isEnabled) {
                     if (Compatibility.isChangeEnabled(CALLBACK_ON_MORE_ERROR_CODE_CHANGE)) {
                         sendUpdateNetworksCallbackHelper(callbackStub,
                                 TelephonyManager.UPDATE_AVAILABLE_NETWORKS_SERVICE_IS_DISABLED);
@@ -567,33 +809,81 @@ public class OpportunisticNetworkService extends Service {
                     }
                 }
             } else {
-                if (!mIsEnabled) {
-                    mONSConfigInputHashMap.put(SYSTEM_APP_CONFIG_NAME, null);
-                    sendUpdateNetworksCallbackHelper(callbackStub,
-                        TelephonyManager.UPDATE_AVAILABLE_NETWORKS_SUCCESS);
-                    return;
-                }
                 /* if system is reporting unavailability, then decide whether to start
                    carrier app request or not. */
-                mONSConfigInputHashMap.put(SYSTEM_APP_CONFIG_NAME, null);
-                if (mONSConfigInputHashMap.get(CARRIER_APP_CONFIG_NAME) == null) {
-                    mProfileSelector.stopProfileSelection(callbackStub);
-                } else {
-                    sendUpdateNetworksCallbackHelper(callbackStub,
-                            TelephonyManager.UPDATE_AVAILABLE_NETWORKS_SUCCESS);
-                    log("Try to start carrier app request");
-                    mProfileSelector.startProfileSelection(
-                            mONSConfigInputHashMap.get(CARRIER_APP_CONFIG_NAME)
-                                    .getAvailableNetworkInfos(),
-                            mONSConfigInputHashMap.get(
-                                    CARRIER_APP_CONFIG_NAME).getAvailableNetworkCallback());
-                }
+                onRequesterWithdrawn(Requester.SYSTEM_APP, callbackStub);
             }
         } finally {
             Binder.restoreCallingIdentity(identity);
         }
     }
 
+    /**
+     * read the state saved before a restart of the phone process, on the background executor.
+     * Inputs whose subscriptions are gone are dropped, the rest is handed to the event loop.
+     */
+    private void restoreState() {
+        ONSStateSnapshot snapshot = mStateStore.read();
+        if (snapshot == null) {
+            return;
+        }
+        EnumMap<Requester, ONSConfigInput> inputs = new EnumMap<>(Requester.class);
+        for (Requester requester : Requester.values()) {
+            ONSConfigInput input = snapshot.getInput(requester);
+            if (input == null
+                    || !mProfileSelector.hasOpprotunisticSub(input.getAvailableNetworkInfos())) {
+                continue;
+            }
+            if (requester == Requester.CARRIER_APP
+                    && !mSubscriptionManager.isActiveSubId(input.getPrimarySub())) {
+                continue;
+            }
+            inputs.put(requester, input);
+        }
+        int lastSelectedSubId = snapshot.getLastSelectedSubId();
+        mHandler.post(() -> applyRestoredState(inputs, lastSelectedSubId));
+    }
+
+    /**
+     * take over the restored state on the event loop, inputs posted since the start win over
+     * the restored ones. The last selected subscription is enabled again right away if it is
+     * still active, the profile selection then revalidates it.
+     */
+    private void applyRestoredState(EnumMap<Requester, ONSConfigInput> inputs,
+            int lastSelectedSubId) {
+        synchronized (mLock) {
+            for (Map.Entry<Requester, ONSConfigInput> entry : inputs.entrySet()) {
+                if (mRequesterRegistry.get(entry.getKey()) == null) {
+                    mRequesterRegistry.set(entry.getKey(), entry.getValue());
+                }
+            }
+            if (mLastSelectedSubId == SubscriptionManager.INVALID_SUBSCRIPTION_ID) {
+                mLastSelectedSubId = lastSelectedSubId;
+            }
+            logDebug("restored state, last selected sub " + mLastSelectedSubId);
+            /* a write made before the restore may have dropped the restored inputs */
+            saveState();
+            if (!mIsEnabled || mSelectingRequester != null) {
+                return;
+            }
+            Requester winner = mRequesterRegistry.arbitrate(this::hasStandaloneOppSubs);
+            if (winner == null) {
+                return;
+            }
+            if (mLastSelectedSubId != SubscriptionManager.INVALID_SUBSCRIPTION_ID) {
+                mProfileSelector.restoreSelectedProfile(mLastSelectedSubId);
+            }
+            startProfileSelection(winner);
+        }
+    }
+
+    /* schedule a write of the current state, see ONSStateStore */
+    private void saveState() {
+        synchronized (mLock) {
+            mStateStore.write(ONSStateSnapshot.from(mRequesterRegistry, mLastSelectedSubId));
+        }
+    }
+
     private boolean getPersistentEnableState() {
         return mSharedPref.getBoolean(PREF_ENABLED, true);
     }
@@ -613,24 +903,11 @@ public class OpportunisticNetworkService extends Service {
             if (mIsEnabled != enable) {
                 updateEnableState(enable);
                 if (!mIsEnabled) {
-                    mProfileSelector.stopProfileSelection(null);
+                    stopProfileSelection(null);
                 } else {
-                    if (mONSConfigInputHashMap.get(CARRIER_APP_CONFIG_NAME) != null &&
-                        mONSConfigInputHashMap.get(CARRIER_APP_CONFIG_NAME)
-                            .getAvailableNetworkInfos() != null) {
-                        mProfileSelector.startProfileSelection(
-                            mONSConfigInputHashMap.get(CARRIER_APP_CONFIG_NAME)
-                                .getAvailableNetworkInfos(),
-                            mONSConfigInputHashMap.get(
-                                CARRIER_APP_CONFIG_NAME).getAvailableNetworkCallback());
-                    } else if (mONSConfigInputHashMap.get(SYSTEM_APP_CONFIG_NAME) != null &&
-                        mONSConfigInputHashMap.get(SYSTEM_APP_CONFIG_NAME)
-                            .getAvailableNetworkInfos() != null) {
-                        mProfileSelector.startProfileSelection(
-                            mONSConfigInputHashMap.get(SYSTEM_APP_CONFIG_NAME)
-                                .getAvailableNetworkInfos(),
-                            mONSConfigInputHashMap.get(
-                                SYSTEM_APP_CONFIG_NAME).getAvailableNetworkCallback());
+                    Requester winner = mRequesterRegistry.arbitrate(this::hasStandaloneOppSubs);
+                    if (winner != null) {
+                        startProfileSelection(winner);
                     }
                 }
             }
@@ -0,0 +1,77 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+package com.android.ons;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import android.telephony.SubscriptionInfo;
+import android.telephony.SubscriptionManager;
+
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+
+@RunWith(AndroidJUnit4.class)
+public class ONSActiveSubscriptionsTest {
+
+    private static SubscriptionInfo createSubscriptionInfo(int subId, boolean isEmbedded,
+            boolean isOpportunistic) {
+        return new SubscriptionInfo(subId, "", 1, "TMO", "TMO", 1, 1, "123", 1, null, "310",
+                "210", "", isEmbedded, null, "1", isOpportunistic, null, 1839, 1);
+    }
+
+    @Test
+    public void testActiveSubscriptions() {
+        SubscriptionInfo primary = createSubscriptionInfo(1, false, false);
+        SubscriptionInfo opportunistic = createSubscriptionInfo(5, true, true);
+        ONSActiveSubscriptions activeSubscriptions =
+                ONSActiveSubscriptions.from(Arrays.asList(primary, opportunistic));
+
+        assertEquals(2, activeSubscriptions.size());
+        assertTrue(activeSubscriptions.isActive(1));
+        assertFalse(activeSubscriptions.isActive(6));
+        assertSame(opportunistic, activeSubscriptions.getActiveSubscription(5));
+        assertNull(activeSubscriptions.getActiveSubscription(6));
+        assertEquals(5, activeSubscriptions.getActiveOpportunisticSubId());
+        assertFalse(activeSubscriptions.isPrimaryActiveOnEmbedded());
+        assertEquals(5, activeSubscriptions.getSubIdForSlot(1));
+        assertEquals(SubscriptionManager.INVALID_SUBSCRIPTION_ID,
+                activeSubscriptions.getSubIdForSlot(2));
+    }
+
+    @Test
+    public void testPrimaryActiveOnEmbedded() {
+        ONSActiveSubscriptions activeSubscriptions = ONSActiveSubscriptions.from(
+                Arrays.asList(createSubscriptionInfo(6, true, false)));
+
+        assertTrue(activeSubscriptions.isPrimaryActiveOnEmbedded());
+        assertEquals(SubscriptionManager.INVALID_SUBSCRIPTION_ID,
+                activeSubscriptions.getActiveOpportunisticSubId());
+    }
+
+    @Test
+    public void testNoActiveSubscriptions() {
+        assertEquals(0, ONSActiveSubscriptions.EMPTY.size());
+        assertFalse(ONSActiveSubscriptions.from(null).isActive(1));
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+package com.android.ons;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.*;
+
+import android.os.IBinder;
+
+import androidx.test.runner.AndroidJUnit4;
+
+import com.android.internal.telephony.IUpdateAvailableNetworksCallback;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+@RunWith(AndroidJUnit4.class)
+public class ONSCallbackDispatcherTest {
+
+    @Test
+    public void testSupersededResultCollapsed() throws Exception {
+        /* deliveries queue up until the test runs them */
+        List<Runnable> queued = new ArrayList<>();
+        ONSCallbackDispatcher dispatcher = new ONSCallbackDispatcher(queued::add);
+        List<Integer> results = new ArrayList<>();
+        IUpdateAvailableNetworksCallback callback = new IUpdateAvailableNetworksCallback.Stub() {
+            @Override
+            public void onComplete(int result) {
+                results.add(result);
+            }
+        };
+
+        dispatcher.dispatch(callback, 1);
+        dispatcher.dispatch(callback, 2);
+        assertEquals(1, queued.size());
+        queued.remove(0).run();
+
+        assertEquals(Collections.singletonList(2), results);
+        assertEquals(1, dispatcher.getCollapsedCount());
+
+        /* a result dispatched after delivery is delivered again */
+        dispatcher.dispatch(callback, 3);
+        assertEquals(1, queued.size());
+        queued.remove(0).run();
+        assertEquals(Arrays.asList(2, 3), results);
+    }
+
+    @Test
+    public void testDeadCallbackDropped() throws Exception {
+        ONSCallbackDispatcher dispatcher = new ONSCallbackDispatcher(Runnable::run);
+        IBinder binder = mock(IBinder.class);
+        doReturn(false).when(binder).isBinderAlive();
+        IUpdateAvailableNetworksCallback callback = mock(IUpdateAvailableNetworksCallback.class);
+        doReturn(binder).when(callback).asBinder();
+
+        dispatcher.dispatch(callback, 0);
+
+        verify(callback, never()).onComplete(anyInt());
+        assertEquals(1, dispatcher.getDroppedCount());
+    }
+}
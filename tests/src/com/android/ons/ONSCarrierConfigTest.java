@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+package com.android.ons;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.os.PersistableBundle;
+import android.telephony.CarrierConfigManager;
+
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(AndroidJUnit4.class)
+public class ONSCarrierConfigTest {
+
+    @Test
+    public void testFromBundle() {
+        PersistableBundle bundle = new PersistableBundle();
+        bundle.putInt(CarrierConfigManager.KEY_OPPORTUNISTIC_NETWORK_EXIT_THRESHOLD_RSRP_INT,
+                -120);
+        bundle.putInt(CarrierConfigManager.KEY_OPPORTUNISTIC_NETWORK_EXIT_THRESHOLD_SS_RSRP_INT,
+                -110);
+        bundle.putBoolean(CarrierConfigManager.KEY_ENABLE_4G_OPPORTUNISTIC_NETWORK_SCAN_BOOL,
+                true);
+        ONSCarrierConfig config = ONSCarrierConfig.fromBundle(5, bundle);
+
+        assertEquals(5, config.mSubId);
+        assertEquals(-120, config.mRsrpEntryThreshold);
+        assertEquals(-110, config.mSsRsrpEntryThreshold);
+        assertTrue(config.mIs4gScanEnabled);
+        assertEquals(ONSScanScheduler.DEFAULT_MIN_INTERVAL_SEC, config.mScanMinIntervalSec);
+        assertEquals(ONSScanScheduler.DEFAULT_MAX_INTERVAL_SEC, config.mScanMaxIntervalSec);
+        assertEquals(ONSNetworkScanCtlr.DEFAULT_AGGREGATION_WINDOW_MS,
+                config.mScanAggregationWindowMs);
+    }
+
+    @Test
+    public void testAggregationWindow() {
+        PersistableBundle bundle = new PersistableBundle();
+        bundle.putLong(ONSCarrierConfig.KEY_OPPORTUNISTIC_NETWORK_SCAN_AGGREGATION_WINDOW_MS_LONG,
+                3000);
+        assertEquals(3000, ONSCarrierConfig.fromBundle(5, bundle).mScanAggregationWindowMs);
+
+        bundle.putLong(ONSCarrierConfig.KEY_OPPORTUNISTIC_NETWORK_SCAN_AGGREGATION_WINDOW_MS_LONG,
+                0);
+        assertEquals(ONSNetworkScanCtlr.DEFAULT_AGGREGATION_WINDOW_MS,
+                ONSCarrierConfig.fromBundle(5, bundle).mScanAggregationWindowMs);
+    }
+
+    @Test
+    public void testFromNullBundleUsesDefaults() {
+        PersistableBundle defaults = CarrierConfigManager.getDefaultConfig();
+        ONSCarrierConfig config = ONSCarrierConfig.fromBundle(5, null);
+
+        assertEquals(defaults.getInt(
+                CarrierConfigManager.KEY_OPPORTUNISTIC_NETWORK_EXIT_THRESHOLD_RSRP_INT),
+                config.mRsrpEntryThreshold);
+        assertEquals(defaults.getBoolean(
+                CarrierConfigManager.KEY_ENABLE_4G_OPPORTUNISTIC_NETWORK_SCAN_BOOL),
+                config.mIs4gScanEnabled);
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+package com.android.ons;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.telephony.AvailableNetworkInfo;
+
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+@RunWith(AndroidJUnit4.class)
+public class ONSConfigInputTest {
+
+    private static AvailableNetworkInfo createAvailableNetworkInfo(int subId, String mccMnc) {
+        return new AvailableNetworkInfo(subId, AvailableNetworkInfo.PRIORITY_HIGH,
+                new ArrayList<>(Arrays.asList(mccMnc)), new ArrayList<Integer>());
+    }
+
+    @Test
+    public void testFingerprintIgnoresOrder() {
+        ArrayList<AvailableNetworkInfo> availableNetworks = new ArrayList<>(Arrays.asList(
+                createAvailableNetworkInfo(5, "310210"), createAvailableNetworkInfo(8, "311480")));
+        ArrayList<AvailableNetworkInfo> reversed = new ArrayList<>(Arrays.asList(
+                createAvailableNetworkInfo(8, "311480"), createAvailableNetworkInfo(5, "310210")));
+        ONSConfigInput onsConfigInput = new ONSConfigInput(availableNetworks, null);
+
+        assertEquals(ONSConfigInput.fingerprint(reversed), onsConfigInput.getFingerprint());
+        assertTrue(onsConfigInput.hasSameAvailableNetworks(reversed,
+                ONSConfigInput.fingerprint(reversed)));
+    }
+
+    @Test
+    public void testFingerprintDiffers() {
+        ArrayList<AvailableNetworkInfo> availableNetworks = new ArrayList<>(Arrays.asList(
+                createAvailableNetworkInfo(5, "310210")));
+        ArrayList<AvailableNetworkInfo> otherPlmn = new ArrayList<>(Arrays.asList(
+                createAvailableNetworkInfo(5, "310211")));
+        ONSConfigInput onsConfigInput = new ONSConfigInput(availableNetworks, null);
+
+        assertNotEquals(ONSConfigInput.fingerprint(otherPlmn), onsConfigInput.getFingerprint());
+        assertFalse(onsConfigInput.hasSameAvailableNetworks(otherPlmn,
+                ONSConfigInput.fingerprint(otherPlmn)));
+        assertFalse(onsConfigInput.hasSameAvailableNetworks(null, 0));
+    }
+
+    @Test
+    public void testSetAvailableNetworkInfoUpdatesFingerprint() {
+        ArrayList<AvailableNetworkInfo> availableNetworks = new ArrayList<>(Arrays.asList(
+                createAvailableNetworkInfo(5, "310210")));
+        ONSConfigInput onsConfigInput = new ONSConfigInput(null, null);
+        onsConfigInput.setAvailableNetworkInfo(availableNetworks);
+
+        assertEquals(ONSConfigInput.fingerprint(availableNetworks),
+                onsConfigInput.getFingerprint());
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+package com.android.ons;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(AndroidJUnit4.class)
+public class ONSModemSlotStatesTest {
+
+    @Test
+    public void testRedundantCommandSkipped() {
+        ONSModemSlotStates modemSlotStates = new ONSModemSlotStates();
+
+        assertTrue(modemSlotStates.setDesired(0, true));
+        modemSlotStates.onCommandComplete(0, true, true);
+        assertFalse(modemSlotStates.setDesired(0, true));
+        assertTrue(modemSlotStates.setDesired(0, false));
+    }
+
+    @Test
+    public void testReportedStateWins() {
+        ONSModemSlotStates modemSlotStates = new ONSModemSlotStates();
+        modemSlotStates.setDesired(0, true);
+        modemSlotStates.onCommandComplete(0, true, true);
+
+        /* the modem was disabled behind our back */
+        modemSlotStates.onActualState(0, false);
+        assertTrue(modemSlotStates.setDesired(0, true));
+
+        modemSlotStates.onActualState(1, false);
+        assertFalse(modemSlotStates.setDesired(1, false));
+    }
+
+    @Test
+    public void testFailedCommandLeavesSlotUnknown() {
+        ONSModemSlotStates modemSlotStates = new ONSModemSlotStates();
+
+        assertTrue(modemSlotStates.setDesired(1, false));
+        modemSlotStates.onCommandComplete(1, false, false);
+        assertTrue(modemSlotStates.setDesired(1, false));
+        assertTrue(modemSlotStates.setDesired(1, true));
+    }
+}
@@ -32,6 +32,7 @@ import android.telephony.NetworkScanRequest;
 import android.telephony.RadioAccessSpecifier;
 import android.telephony.SubscriptionInfo;
 import android.telephony.TelephonyManager;
+import android.telephony.TelephonyScanManager;
 import android.util.Log;
 
 import androidx.test.InstrumentationRegistry;
@@ -53,6 +54,7 @@ public class ONSNetworkScanCtlrTest extends ONSBaseTest {
     private List<CellInfo> mResults;
     private int mError;
     private boolean mCallbackInvoked;
+    private int mCallbackCount;
     private Looper mLooper;
 
     private static final int SEARCH_PERIODICITY = 60;
@@ -104,6 +106,7 @@ public class ONSNetworkScanCtlrTest extends ONSBaseTest {
         // Testing startFastNetworkScan, onNetworkAvailability should be called with expectedResults
         mONSNetworkScanCtlr.startFastNetworkScan(availableNetworkInfos);
         mONSNetworkScanCtlr.mNetworkScanCallback.onResults(expectedResults);
+        mONSNetworkScanCtlr.mNetworkScanCallback.onComplete();
         waitUntilReady(100);
         assertEquals(expectedResults, mResults);
     }
@@ -152,10 +155,113 @@ public class ONSNetworkScanCtlrTest extends ONSBaseTest {
         // Testing startSlowNetworkScan, onNetworkAvailability should be called with expectedResults
         mONSNetworkScanCtlr.startFastNetworkScan(availableNetworkInfos);
         mONSNetworkScanCtlr.mNetworkScanCallback.onResults(expectedResults);
+        mONSNetworkScanCtlr.mNetworkScanCallback.onComplete();
         waitUntilReady(100);
         assertEquals(expectedResults, mResults);
     }
 
+    @Test
+    public void testPartialResultsAggregatedUntilScanComplete() {
+        CellIdentityLte cellIdentityLte = new CellIdentityLte(310, 210, 1, 1, 1);
+        CellInfoLte cellInfoLte = new CellInfoLte();
+        cellInfoLte.setCellIdentity(cellIdentityLte);
+        CellIdentityLte cellIdentityLte2 = new CellIdentityLte(310, 210, 2, 2, 1);
+        CellInfoLte cellInfoLte2 = new CellInfoLte();
+        cellInfoLte2.setCellIdentity(cellIdentityLte2);
+        List<CellInfo> firstBatch = new ArrayList<CellInfo>();
+        firstBatch.add((CellInfo) cellInfoLte);
+        List<CellInfo> secondBatch = new ArrayList<CellInfo>();
+        secondBatch.add((CellInfo) cellInfoLte);
+        secondBatch.add((CellInfo) cellInfoLte2);
+        List<CellInfo> expectedResults = new ArrayList<CellInfo>();
+        expectedResults.add((CellInfo) cellInfoLte);
+        expectedResults.add((CellInfo) cellInfoLte2);
+        ArrayList<String> mccMncs = new ArrayList<>();
+        mccMncs.add("310210");
+        AvailableNetworkInfo availableNetworkInfo = new AvailableNetworkInfo(1, 1, mccMncs,
+                new ArrayList<Integer>());
+        ArrayList<AvailableNetworkInfo> availableNetworkInfos =
+                new ArrayList<AvailableNetworkInfo>();
+        availableNetworkInfos.add(availableNetworkInfo);
+        mCallbackCount = 0;
+
+        initONSNetworkScanCtrl();
+
+        // Partial batches should be reported once, merged per cell, when the cycle completes.
+        mONSNetworkScanCtlr.startFastNetworkScan(availableNetworkInfos);
+        mONSNetworkScanCtlr.mNetworkScanCallback.onResults(firstBatch);
+        mONSNetworkScanCtlr.mNetworkScanCallback.onResults(secondBatch);
+        waitUntilReady(100);
+        assertEquals(0, mCallbackCount);
+        mONSNetworkScanCtlr.mNetworkScanCallback.onComplete();
+        waitUntilReady(100);
+        assertEquals(1, mCallbackCount);
+        assertEquals(expectedResults, mResults);
+    }
+
+    @Test
+    public void testPartialResultsReportedWhenAggregationWindowCloses() {
+        List<CellInfo> expectedResults = new ArrayList<CellInfo>();
+        CellIdentityLte cellIdentityLte = new CellIdentityLte(310, 210, 1, 1, 1);
+        CellInfoLte cellInfoLte = new CellInfoLte();
+        cellInfoLte.setCellIdentity(cellIdentityLte);
+        expectedResults.add((CellInfo) cellInfoLte);
+        ArrayList<String> mccMncs = new ArrayList<>();
+        mccMncs.add("310210");
+        AvailableNetworkInfo availableNetworkInfo = new AvailableNetworkInfo(1, 1, mccMncs,
+                new ArrayList<Integer>());
+        ArrayList<AvailableNetworkInfo> availableNetworkInfos =
+                new ArrayList<AvailableNetworkInfo>();
+        availableNetworkInfos.add(availableNetworkInfo);
+
+        initONSNetworkScanCtrl();
+        mONSNetworkScanCtlr.setAggregationWindowMs(10);
+
+        // Results should be reported once the aggregation window closes even without onComplete.
+        mONSNetworkScanCtlr.startFastNetworkScan(availableNetworkInfos);
+        mONSNetworkScanCtlr.mNetworkScanCallback.onResults(expectedResults);
+        waitUntilReady(200);
+        assertEquals(expectedResults, mResults);
+    }
+
+    @Test
+    public void testResultsOfReplacedScanAreDropped() {
+        List<CellInfo> staleResults = new ArrayList<CellInfo>();
+        CellInfoLte staleCellInfo = new CellInfoLte();
+        staleCellInfo.setCellIdentity(new CellIdentityLte(310, 211, 2, 2, 1));
+        staleResults.add((CellInfo) staleCellInfo);
+        List<CellInfo> expectedResults = new ArrayList<CellInfo>();
+        CellInfoLte cellInfoLte = new CellInfoLte();
+        cellInfoLte.setCellIdentity(new CellIdentityLte(310, 211, 1, 1, 1));
+        expectedResults.add((CellInfo) cellInfoLte);
+        ArrayList<AvailableNetworkInfo> firstNetworks = new ArrayList<AvailableNetworkInfo>();
+        firstNetworks.add(new AvailableNetworkInfo(1, 1, new ArrayList<>(Arrays.asList("310210")),
+                new ArrayList<Integer>()));
+        ArrayList<AvailableNetworkInfo> secondNetworks = new ArrayList<AvailableNetworkInfo>();
+        secondNetworks.add(new AvailableNetworkInfo(1, 1, new ArrayList<>(Arrays.asList("310211")),
+                new ArrayList<Integer>()));
+        mCallbackCount = 0;
+
+        initONSNetworkScanCtrl();
+
+        // Late callbacks of the first scan must not be analyzed once it has been replaced.
+        mONSNetworkScanCtlr.startFastNetworkScan(firstNetworks);
+        TelephonyScanManager.NetworkScanCallback staleCallback =
+                mONSNetworkScanCtlr.mNetworkScanCallback;
+        mONSNetworkScanCtlr.startFastNetworkScan(secondNetworks);
+        assertNotSame(staleCallback, mONSNetworkScanCtlr.mNetworkScanCallback);
+        staleCallback.onResults(staleResults);
+        staleCallback.onComplete();
+        waitUntilReady(100);
+        assertEquals(0, mCallbackCount);
+
+        mONSNetworkScanCtlr.mNetworkScanCallback.onResults(expectedResults);
+        mONSNetworkScanCtlr.mNetworkScanCallback.onComplete();
+        waitUntilReady(100);
+        assertEquals(1, mCallbackCount);
+        assertEquals(expectedResults, mResults);
+    }
+
     @Test
     public void testStopNetworkScan() {
         List<CellInfo> expectedResults = new ArrayList<CellInfo>();
@@ -294,6 +400,24 @@ public class ONSNetworkScanCtlrTest extends ONSBaseTest {
         assertEquals(radioAccessSpecifiers[0], TEST_5G_RAS);
     }
 
+    @Test
+    public void testCreateNetworkScanRequest_cachedForSameAvailableNetworks() {
+        initONSNetworkScanCtrl();
+        mONSNetworkScanCtlr.setIs4gScanEnabled(true);
+
+        NetworkScanRequest networkScanRequest = createNetworkScanRequest(
+                new ArrayList<>(Arrays.asList(TEST_5G_RAS, TEST_4G_RAS)));
+        NetworkScanRequest sameNetworkScanRequest = createNetworkScanRequest(
+                new ArrayList<>(Arrays.asList(TEST_5G_RAS, TEST_4G_RAS)));
+        assertSame(networkScanRequest, sameNetworkScanRequest);
+
+        mONSNetworkScanCtlr.setIs4gScanEnabled(false);
+        NetworkScanRequest networkScanRequest4gDisabled = createNetworkScanRequest(
+                new ArrayList<>(Arrays.asList(TEST_5G_RAS, TEST_4G_RAS)));
+        assertNotSame(networkScanRequest, networkScanRequest4gDisabled);
+        assertEquals(networkScanRequest4gDisabled.getSpecifiers().length, 1);
+    }
+
     private NetworkScanRequest createNetworkScanRequest(ArrayList<RadioAccessSpecifier> ras) {
         AvailableNetworkInfo availableNetworkInfo = new AvailableNetworkInfo.Builder()
                 .setSubId(TEST_SUBSCRIPTION_INFO.getSubscriptionId())
@@ -322,6 +446,7 @@ public class ONSNetworkScanCtlrTest extends ONSBaseTest {
                         @Override
                         public void onNetworkAvailability(List<CellInfo> results) {
                             mResults = results;
+                            mCallbackCount++;
                             setReady(true);
                         }
 
@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+package com.android.ons;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.PersistableBundle;
+import android.os.SystemClock;
+
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@RunWith(AndroidJUnit4.class)
+public class ONSOperationDeadlinesTest {
+    private HandlerThread mThread;
+    private ONSOperationDeadlines mDeadlines;
+
+    @Before
+    public void setUp() {
+        mThread = new HandlerThread("ONSOperationDeadlinesTest");
+        mThread.start();
+        mDeadlines = new ONSOperationDeadlines(new Handler(mThread.getLooper()));
+    }
+
+    @After
+    public void tearDown() {
+        mThread.quitSafely();
+    }
+
+    @Test
+    public void testCompletedBeforeDeadline() throws InterruptedException {
+        AtomicInteger fallbacks = new AtomicInteger();
+        mDeadlines.setTimeoutMs(ONSOperationDeadlines.OP_SWITCH_SUBSCRIPTION, 100);
+        ONSOperationDeadlines.Deadline deadline = mDeadlines.start(
+                ONSOperationDeadlines.OP_SWITCH_SUBSCRIPTION, fallbacks::incrementAndGet);
+
+        assertTrue(mDeadlines.complete(deadline));
+        assertFalse(mDeadlines.complete(deadline));
+        Thread.sleep(300);
+        assertEquals(0, fallbacks.get());
+        assertEquals(0, mDeadlines.getTimeoutCount(ONSOperationDeadlines.OP_SWITCH_SUBSCRIPTION));
+    }
+
+    @Test
+    public void testFallbackOnDeadline() throws InterruptedException {
+        CountDownLatch fallback = new CountDownLatch(1);
+        mDeadlines.setTimeoutMs(ONSOperationDeadlines.OP_SET_PREFERRED_DATA, 100);
+        ONSOperationDeadlines.Deadline deadline = mDeadlines.start(
+                ONSOperationDeadlines.OP_SET_PREFERRED_DATA, fallback::countDown);
+
+        assertTrue(fallback.await(1, TimeUnit.SECONDS));
+        /* a late completion is dropped */
+        assertFalse(mDeadlines.complete(deadline));
+        assertEquals(1, mDeadlines.getTimeoutCount(ONSOperationDeadlines.OP_SET_PREFERRED_DATA));
+        assertTrue(mDeadlines.getMaxLatencyMs(ONSOperationDeadlines.OP_SET_PREFERRED_DATA)
+                >= 100);
+    }
+
+    @Test
+    public void testCancel() throws InterruptedException {
+        AtomicInteger fallbacks = new AtomicInteger();
+        mDeadlines.setTimeoutMs(ONSOperationDeadlines.OP_SWITCH_SUBSCRIPTION, 100);
+        ONSOperationDeadlines.Deadline deadline = mDeadlines.start(
+                ONSOperationDeadlines.OP_SWITCH_SUBSCRIPTION, fallbacks::incrementAndGet);
+
+        mDeadlines.cancel(deadline);
+        Thread.sleep(300);
+        assertEquals(0, fallbacks.get());
+        assertFalse(mDeadlines.complete(deadline));
+    }
+
+    @Test
+    public void testRecordLatency() {
+        mDeadlines.recordLatency(ONSOperationDeadlines.OP_ENABLE_MODEM,
+                SystemClock.elapsedRealtime() - 50);
+
+        assertTrue(mDeadlines.getMaxLatencyMs(ONSOperationDeadlines.OP_ENABLE_MODEM) >= 50);
+        assertEquals(0, mDeadlines.getTimeoutCount(ONSOperationDeadlines.OP_ENABLE_MODEM));
+    }
+
+    @Test
+    public void testTimeoutsFromCarrierConfig() {
+        PersistableBundle bundle = new PersistableBundle();
+        bundle.putLong(ONSCarrierConfig.KEY_OPPORTUNISTIC_NETWORK_SWITCH_TIMEOUT_MS_LONG, 5000);
+        mDeadlines.updateTimeouts(ONSCarrierConfig.fromBundle(5, bundle));
+
+        assertEquals(5000, mDeadlines.getTimeoutMs(ONSOperationDeadlines.OP_SWITCH_SUBSCRIPTION));
+        assertEquals(ONSOperationDeadlines.DEFAULT_SET_PREFERRED_DATA_TIMEOUT_MS,
+                mDeadlines.getTimeoutMs(ONSOperationDeadlines.OP_SET_PREFERRED_DATA));
+
+        /* no snapshot keeps the current timeouts */
+        mDeadlines.updateTimeouts(null);
+        assertEquals(5000, mDeadlines.getTimeoutMs(ONSOperationDeadlines.OP_SWITCH_SUBSCRIPTION));
+    }
+
+    @Test
+    public void testInvalidTimeoutIgnored() {
+        mDeadlines.setTimeoutMs(ONSOperationDeadlines.OP_ENABLE_MODEM, 0);
+        assertEquals(ONSOperationDeadlines.DEFAULT_ENABLE_MODEM_TIMEOUT_MS,
+                mDeadlines.getTimeoutMs(ONSOperationDeadlines.OP_ENABLE_MODEM));
+    }
+}
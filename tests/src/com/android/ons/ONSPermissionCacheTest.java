@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+package com.android.ons;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(AndroidJUnit4.class)
+public class ONSPermissionCacheTest {
+    private static final int UID = 10100;
+    private static final String PACKAGE = "com.carrier.app";
+    private static final int CARRIER = ONSPermissionCache.CHECK_CARRIER_PRIVILEGE;
+    private static final int OPPORTUNISTIC = ONSPermissionCache.CHECK_OPPORTUNISTIC_SUB_PRIVILEGE;
+
+    private static void grant(ONSPermissionCache permissionCache, int check, int subId) {
+        permissionCache.grant(check, UID, PACKAGE, subId, permissionCache.getGeneration());
+    }
+
+    @Test
+    public void testGrantIsKeyedByCallerAndSub() {
+        ONSPermissionCache permissionCache = new ONSPermissionCache();
+        assertFalse(permissionCache.isGranted(CARRIER, UID, PACKAGE, 1));
+
+        grant(permissionCache, CARRIER, 1);
+        assertTrue(permissionCache.isGranted(CARRIER, UID, PACKAGE, 1));
+        assertFalse(permissionCache.isGranted(CARRIER, UID, PACKAGE, 2));
+        assertFalse(permissionCache.isGranted(CARRIER, UID + 1, PACKAGE, 1));
+        assertFalse(permissionCache.isGranted(CARRIER, UID, "com.other.app", 1));
+        assertFalse(permissionCache.isGranted(CARRIER, UID, null, 1));
+    }
+
+    @Test
+    public void testGrantIsKeyedByCheck() {
+        ONSPermissionCache permissionCache = new ONSPermissionCache();
+
+        /* managing an opportunistic subscription does not make a carrier privileged app */
+        grant(permissionCache, OPPORTUNISTIC, 1);
+        assertTrue(permissionCache.isGranted(OPPORTUNISTIC, UID, PACKAGE, 1));
+        assertFalse(permissionCache.isGranted(CARRIER, UID, PACKAGE, 1));
+
+        grant(permissionCache, CARRIER, 2);
+        assertFalse(permissionCache.isGranted(OPPORTUNISTIC, UID, PACKAGE, 2));
+    }
+
+    @Test
+    public void testInvalidate() {
+        ONSPermissionCache permissionCache = new ONSPermissionCache();
+        grant(permissionCache, CARRIER, 1);
+        grant(permissionCache, CARRIER, 2);
+
+        permissionCache.invalidate();
+        assertEquals(0, permissionCache.size());
+        assertFalse(permissionCache.isGranted(CARRIER, UID, PACKAGE, 1));
+    }
+
+    @Test
+    public void testGrantAfterInvalidateDropped() {
+        ONSPermissionCache permissionCache = new ONSPermissionCache();
+        /* the check runs while the privileges change */
+        long generation = permissionCache.getGeneration();
+        permissionCache.invalidate();
+        permissionCache.grant(CARRIER, UID, PACKAGE, 1, generation);
+
+        assertEquals(0, permissionCache.size());
+        assertFalse(permissionCache.isGranted(CARRIER, UID, PACKAGE, 1));
+    }
+
+    @Test
+    public void testGrantExpires() throws InterruptedException {
+        ONSPermissionCache permissionCache = new ONSPermissionCache(50);
+        grant(permissionCache, CARRIER, 1);
+        assertTrue(permissionCache.isGranted(CARRIER, UID, PACKAGE, 1));
+
+        Thread.sleep(100);
+        assertFalse(permissionCache.isGranted(CARRIER, UID, PACKAGE, 1));
+        assertEquals(0, permissionCache.size());
+    }
+}
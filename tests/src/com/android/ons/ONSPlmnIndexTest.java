@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+package com.android.ons;
+
+import static org.junit.Assert.assertEquals;
+
+import android.telephony.AvailableNetworkInfo;
+import android.telephony.SubscriptionManager;
+
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+@RunWith(AndroidJUnit4.class)
+public class ONSPlmnIndexTest {
+
+    @Test
+    public void testBestPriorityWins() {
+        List<AvailableNetworkInfo> availableNetworks = new ArrayList<AvailableNetworkInfo>();
+        availableNetworks.add(new AvailableNetworkInfo(5, AvailableNetworkInfo.PRIORITY_MED,
+                new ArrayList<>(Arrays.asList("310210", "311480")), new ArrayList<Integer>()));
+        availableNetworks.add(new AvailableNetworkInfo(8, AvailableNetworkInfo.PRIORITY_HIGH,
+                new ArrayList<>(Arrays.asList("311480")), new ArrayList<Integer>()));
+        ONSPlmnIndex index = ONSPlmnIndex.build(availableNetworks);
+
+        assertEquals(2, index.size());
+        assertEquals(5, index.getSubId(ONSPlmn.pack("310210")));
+        assertEquals(AvailableNetworkInfo.PRIORITY_MED,
+                index.getPriority(ONSPlmn.pack("310210")));
+        assertEquals(8, index.getSubId(ONSPlmn.pack("311480")));
+        assertEquals(AvailableNetworkInfo.PRIORITY_HIGH,
+                index.getPriority(ONSPlmn.pack("311480")));
+    }
+
+    @Test
+    public void testUnknownPlmn() {
+        ONSPlmnIndex index = ONSPlmnIndex.build(null);
+
+        assertEquals(SubscriptionManager.INVALID_SUBSCRIPTION_ID,
+                index.getSubId(ONSPlmn.pack("310210")));
+        assertEquals(ONSPlmnIndex.NO_PRIORITY, index.getPriority(ONSPlmn.INVALID));
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+package com.android.ons;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.telephony.CellIdentityLte;
+import android.telephony.CellInfoLte;
+import android.util.SparseBooleanArray;
+
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+
+@RunWith(AndroidJUnit4.class)
+public class ONSPlmnTest {
+
+    @Test
+    public void testPackMccMnc() {
+        assertEquals(ONSPlmn.pack("310", "210"), ONSPlmn.pack("310210"));
+        assertEquals(ONSPlmn.pack("234", "15"), ONSPlmn.pack("23415"));
+        assertEquals(310, ONSPlmn.getMcc(ONSPlmn.pack("310210")));
+        assertEquals(210, ONSPlmn.getMnc(ONSPlmn.pack("310210")));
+        assertTrue(ONSPlmn.hasThreeDigitMnc(ONSPlmn.pack("310210")));
+        assertFalse(ONSPlmn.hasThreeDigitMnc(ONSPlmn.pack("23415")));
+        assertEquals("310210", ONSPlmn.toString(ONSPlmn.pack("310210")));
+        assertEquals("23415", ONSPlmn.toString(ONSPlmn.pack("23415")));
+    }
+
+    @Test
+    public void testTwoAndThreeDigitMncAreDistinct() {
+        assertNotEquals(ONSPlmn.pack("31021"), ONSPlmn.pack("310021"));
+    }
+
+    @Test
+    public void testPackInvalid() {
+        assertEquals(ONSPlmn.INVALID, ONSPlmn.pack(null));
+        assertEquals(ONSPlmn.INVALID, ONSPlmn.pack("3102"));
+        assertEquals(ONSPlmn.INVALID, ONSPlmn.pack("3102101"));
+        assertEquals(ONSPlmn.INVALID, ONSPlmn.pack("31a210"));
+        assertEquals(ONSPlmn.INVALID, ONSPlmn.pack("310", null));
+    }
+
+    @Test
+    public void testFromCellInfo() {
+        CellInfoLte cellInfoLte = new CellInfoLte();
+        cellInfoLte.setCellIdentity(new CellIdentityLte(310, 210, 1, 1, 1));
+        SparseBooleanArray plmns = new SparseBooleanArray();
+        ONSPlmn.addAll(plmns, Arrays.asList("310210", "311480"));
+
+        assertTrue(plmns.get(ONSPlmn.fromCellInfo(cellInfoLte)));
+        assertFalse(plmns.get(ONSPlmn.fromCellInfo(null)));
+    }
+}
@@ -38,6 +38,7 @@ import com.android.internal.telephony.IUpdateAvailableNetworksCallback;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.InOrder;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
@@ -45,6 +46,8 @@ import java.lang.reflect.Field;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 public class ONSProfileSelectorTest extends ONSBaseTest {
 
@@ -65,6 +68,7 @@ public class ONSProfileSelectorTest extends ONSBaseTest {
     SubscriptionInfo mSubInfo;
     private Looper mLooper;
     private static final String TAG = "ONSProfileSelectorTest";
+    private static final long MAX_LOOPER_WAIT_MS = 5000;
 
     MyONSProfileSelector.ONSProfileSelectionCallback mONSProfileSelectionCallback =
         new MyONSProfileSelector.ONSProfileSelectionCallback() {
@@ -89,6 +93,17 @@ public class ONSProfileSelectorTest extends ONSBaseTest {
             mHandler.sendEmptyMessage(1);
         }
 
+        /* run the messages queued on the selector looper so far */
+        public void processAllMessages() {
+            CountDownLatch latch = new CountDownLatch(1);
+            mHandler.post(latch::countDown);
+            try {
+                latch.await(MAX_LOOPER_WAIT_MS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Log.d(TAG, "InterruptedException while waiting: " + e);
+            }
+        }
+
         public void updateOppSubs() {
             updateOpportunisticSubscriptions();
         }
@@ -238,7 +253,8 @@ public class ONSProfileSelectorTest extends ONSBaseTest {
                 Looper.prepare();
                 doReturn(subscriptionInfoList).when(mSubscriptionManager)
                     .getOpportunisticSubscriptions();
-                doReturn(true).when(mSubscriptionManager).isActiveSubId(subId);
+                doReturn(subscriptionInfoList).when(mSubscriptionManager)
+                    .getActiveSubscriptionInfoList(anyBoolean());
                 doReturn(true).when(mSubscriptionBoundTelephonyManager).enableModemForSlot(
                     anyInt(), anyBoolean());
                 mONSProfileSelector = new MyONSProfileSelector(mContext,
@@ -325,7 +341,8 @@ public class ONSProfileSelectorTest extends ONSBaseTest {
                 Looper.prepare();
                 doReturn(subscriptionInfoList).when(mSubscriptionManager)
                         .getOpportunisticSubscriptions();
-                doReturn(true).when(mSubscriptionManager).isActiveSubId(anyInt());
+                doReturn(subscriptionInfoList).when(mSubscriptionManager)
+                        .getActiveSubscriptionInfoList(anyBoolean());
                 doReturn(true).when(mSubscriptionBoundTelephonyManager).enableModemForSlot(
                         anyInt(), anyBoolean());
                 mONSProfileSelector = new MyONSProfileSelector(mContext,
@@ -346,6 +363,7 @@ public class ONSProfileSelectorTest extends ONSBaseTest {
         // get high priority subId
         int retrieveSubId = mONSProfileSelector.retrieveBestSubscription(results2);
         mONSProfileSelector.mNetworkAvailableCallBackCpy.onNetworkAvailability(results2);
+        mONSProfileSelector.processAllMessages();
         assertEquals(8, retrieveSubId);
         assertEquals(TelephonyManager.UPDATE_AVAILABLE_NETWORKS_SUCCESS, mResult);
     }
@@ -601,7 +619,8 @@ public class ONSProfileSelectorTest extends ONSBaseTest {
                 Looper.prepare();
                 doReturn(subscriptionInfoList).when(mSubscriptionManager)
                     .getOpportunisticSubscriptions();
-                doReturn(true).when(mSubscriptionManager).isActiveSubId(anyInt());
+                doReturn(subscriptionInfoList).when(mSubscriptionManager)
+                    .getActiveSubscriptionInfoList(anyBoolean());
                 doReturn(true).when(mSubscriptionBoundTelephonyManager).enableModemForSlot(
                     anyInt(), anyBoolean());
 
@@ -638,7 +657,8 @@ public class ONSProfileSelectorTest extends ONSBaseTest {
                 Looper.prepare();
                 doReturn(subscriptionInfoList).when(mSubscriptionManager)
                     .getOpportunisticSubscriptions();
-                doReturn(true).when(mSubscriptionManager).isActiveSubId(anyInt());
+                doReturn(subscriptionInfoList).when(mSubscriptionManager)
+                    .getActiveSubscriptionInfoList(anyBoolean());
                 doReturn(true).when(mSubscriptionBoundTelephonyManager).enableModemForSlot(
                     anyInt(), anyBoolean());
                 mONSProfileSelector.updateOppSubs();
@@ -664,6 +684,45 @@ public class ONSProfileSelectorTest extends ONSBaseTest {
         assertTrue(mReady);
     }
 
+    @Test
+    public void testSelectProfileForDataUsesCachedISub() throws Exception {
+        List<SubscriptionInfo> subscriptionInfoList = new ArrayList<SubscriptionInfo>();
+        SubscriptionInfo subscriptionInfo = new SubscriptionInfo(5, "", 1, "TMO", "TMO", 1, 1,
+                "123", 1, null, "310", "210", "", false, null, "1");
+        subscriptionInfoList.add(subscriptionInfo);
+        mReady = false;
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Looper.prepare();
+                doReturn(subscriptionInfoList).when(mSubscriptionManager)
+                        .getOpportunisticSubscriptions();
+                doReturn(subscriptionInfoList).when(mSubscriptionManager)
+                        .getActiveSubscriptionInfoList(anyBoolean());
+                mONSProfileSelector = new MyONSProfileSelector(mContext,
+                        mONSProfileSelectionCallback);
+                mONSProfileSelector.updateOppSubs();
+                mLooper = Looper.myLooper();
+                setReady(true);
+                Looper.loop();
+            }
+        }).start();
+        waitUntilReady();
+
+        mONSProfileSelector.selectProfileForData(5, false, null);
+        mONSProfileSelector.selectProfileForData(
+                SubscriptionManager.DEFAULT_SUBSCRIPTION_ID, false, null);
+        waitForMs(500);
+
+        /* both calls reach the service through the proxy resolved once */
+        verify(mISubMock).setPreferredDataSubscriptionId(eq(5), eq(false), any());
+        verify(mISubMock).setPreferredDataSubscriptionId(
+                eq(SubscriptionManager.DEFAULT_SUBSCRIPTION_ID), eq(false), any());
+        verify(mISubBinderMock, times(1)).linkToDeath(any(), anyInt());
+        assertEquals(SubscriptionManager.DEFAULT_SUBSCRIPTION_ID,
+                mONSProfileSelector.getCurrentPreferredData());
+    }
+
     @Test
     public void testStopProfileSelectionWithPreferredDataOnSame() {
         List<SubscriptionInfo> subscriptionInfoList = new ArrayList<SubscriptionInfo>();
@@ -690,6 +749,8 @@ public class ONSProfileSelectorTest extends ONSBaseTest {
                 doReturn(true).when(mSubscriptionManager).isActiveSubId(anyInt());
                 doReturn(true).when(mSubscriptionBoundTelephonyManager).enableModemForSlot(
                         anyInt(), anyBoolean());
+                doReturn(true).when(mSubscriptionBoundTelephonyManager).isModemEnabledForSlot(
+                        anyInt());
                 doReturn(5).when(mSubscriptionManager).getPreferredDataSubscriptionId();
                 doReturn(subscriptionInfoList).when(mSubscriptionManager)
                         .getActiveSubscriptionInfoList(anyBoolean());
@@ -711,6 +772,11 @@ public class ONSProfileSelectorTest extends ONSBaseTest {
         waitUntilReady();
         waitForMs(500);
         assertEquals(SubscriptionManager.DEFAULT_SUBSCRIPTION_ID, mONSProfileSelector.getCurrentPreferredData());
+        /* data is handed back before the opportunistic modem goes down */
+        InOrder order = inOrder(mISubMock, mSubscriptionBoundTelephonyManager);
+        order.verify(mISubMock).setPreferredDataSubscriptionId(
+                eq(SubscriptionManager.DEFAULT_SUBSCRIPTION_ID), eq(false), any());
+        order.verify(mSubscriptionBoundTelephonyManager).enableModemForSlot(anyInt(), eq(false));
     }
 
     @Test
@@ -739,6 +805,8 @@ public class ONSProfileSelectorTest extends ONSBaseTest {
                 doReturn(true).when(mSubscriptionManager).isActiveSubId(anyInt());
                 doReturn(true).when(mSubscriptionBoundTelephonyManager).enableModemForSlot(
                         anyInt(), anyBoolean());
+                doReturn(true).when(mSubscriptionBoundTelephonyManager).isModemEnabledForSlot(
+                        anyInt());
                 doReturn(4).when(mSubscriptionManager).getPreferredDataSubscriptionId();
                 doReturn(subscriptionInfoList).when(mSubscriptionManager)
                         .getActiveSubscriptionInfoList(anyBoolean());
@@ -761,4 +829,251 @@ public class ONSProfileSelectorTest extends ONSBaseTest {
         waitForMs(500);
         assertEquals(mONSProfileSelector.getCurrentPreferredData(), 5);
     }
+
+    @Test
+    public void testRequestsDeferredWhileSwitching() {
+        List<SubscriptionInfo> subscriptionInfoList = new ArrayList<SubscriptionInfo>();
+        SubscriptionInfo subscriptionInfo = new SubscriptionInfo(5, "", 1, "TMO", "TMO", 1, 1,
+                "123", 1, null, "310", "210", "", false, null, "1");
+        subscriptionInfoList.add(subscriptionInfo);
+
+        /* no PLMN, the inactive sub is switched to without scanning */
+        ArrayList<AvailableNetworkInfo> switchRequest = new ArrayList<AvailableNetworkInfo>();
+        switchRequest.add(new AvailableNetworkInfo(5, 1, new ArrayList<String>(),
+                new ArrayList<Integer>()));
+        ArrayList<String> mccMncs = new ArrayList<>();
+        mccMncs.add("310210");
+        ArrayList<AvailableNetworkInfo> supersededRequest = new ArrayList<AvailableNetworkInfo>();
+        supersededRequest.add(new AvailableNetworkInfo(5, 2, mccMncs, new ArrayList<Integer>()));
+        ArrayList<AvailableNetworkInfo> latestRequest = new ArrayList<AvailableNetworkInfo>();
+        latestRequest.add(new AvailableNetworkInfo(5, 1, mccMncs, new ArrayList<Integer>()));
+
+        IUpdateAvailableNetworksCallback mCallback = new IUpdateAvailableNetworksCallback.Stub() {
+            @Override
+            public void onComplete(int result) {
+                mResult = result;
+            }
+        };
+
+        mResult = -1;
+        mReady = false;
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Looper.prepare();
+                doReturn(subscriptionInfoList).when(mSubscriptionManager)
+                        .getOpportunisticSubscriptions();
+                mONSProfileSelector = new MyONSProfileSelector(mContext,
+                        mONSProfileSelectionCallback);
+                mONSProfileSelector.updateOppSubs();
+                mONSProfileSelector.startProfileSelection(switchRequest, null);
+                mLooper = Looper.myLooper();
+                setReady(true);
+                Looper.loop();
+            }
+        }).start();
+        waitUntilReady();
+        waitForMs(500);
+        assertEquals(ONSProfileSelector.SelectionState.SWITCHING,
+                mONSProfileSelector.getSelectionState());
+
+        mONSProfileSelector.startProfileSelection(supersededRequest, mCallback);
+        waitForMs(100);
+        mONSProfileSelector.startProfileSelection(latestRequest, null);
+        waitForMs(500);
+
+        /* the switch is not aborted, the superseded deferred request is */
+        verify(mSubscriptionManager, times(1)).switchToSubscription(eq(5), any());
+        assertEquals(ONSProfileSelector.SelectionState.SWITCHING,
+                mONSProfileSelector.getSelectionState());
+        assertEquals(TelephonyManager.UPDATE_AVAILABLE_NETWORKS_ABORTED, mResult);
+        verify(mONSNetworkScanCtlr, never()).startFastNetworkScan(any());
+    }
+
+    @Test
+    public void testSwitchTimeout() {
+        List<SubscriptionInfo> subscriptionInfoList = new ArrayList<SubscriptionInfo>();
+        SubscriptionInfo subscriptionInfo = new SubscriptionInfo(5, "", 1, "TMO", "TMO", 1, 1,
+                "123", 1, null, "310", "210", "", false, null, "1");
+        subscriptionInfoList.add(subscriptionInfo);
+
+        ArrayList<AvailableNetworkInfo> availableNetworkInfos =
+                new ArrayList<AvailableNetworkInfo>();
+        availableNetworkInfos.add(new AvailableNetworkInfo(5, 1, new ArrayList<String>(),
+                new ArrayList<Integer>()));
+
+        IUpdateAvailableNetworksCallback mCallback = new IUpdateAvailableNetworksCallback.Stub() {
+            @Override
+            public void onComplete(int result) {
+                mResult = result;
+            }
+        };
+
+        mResult = -1;
+        mReady = false;
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Looper.prepare();
+                doReturn(subscriptionInfoList).when(mSubscriptionManager)
+                        .getOpportunisticSubscriptions();
+                mONSProfileSelector = new MyONSProfileSelector(mContext,
+                        mONSProfileSelectionCallback);
+                mONSProfileSelector.mDeadlines.setTimeoutMs(
+                        ONSOperationDeadlines.OP_SWITCH_SUBSCRIPTION, 200);
+                mONSProfileSelector.updateOppSubs();
+                mONSProfileSelector.startProfileSelection(availableNetworkInfos, mCallback);
+                mLooper = Looper.myLooper();
+                setReady(true);
+                Looper.loop();
+            }
+        }).start();
+        waitUntilReady();
+        waitForMs(100);
+        assertEquals(ONSProfileSelector.SelectionState.SWITCHING,
+                mONSProfileSelector.getSelectionState());
+        assertEquals(-1, mResult);
+        waitForMs(500);
+
+        /* the reply never came, the caller is answered on the deadline */
+        verify(mSubscriptionManager, times(1)).switchToSubscription(eq(5), any());
+        assertEquals(ONSProfileSelector.SelectionState.IDLE,
+                mONSProfileSelector.getSelectionState());
+        assertTrue(mResult != -1);
+        assertTrue(mResult != TelephonyManager.UPDATE_AVAILABLE_NETWORKS_SUCCESS);
+        assertEquals(1, mONSProfileSelector.mDeadlines.getTimeoutCount(
+                ONSOperationDeadlines.OP_SWITCH_SUBSCRIPTION));
+        assertEquals(1, mONSProfileSelector.getAbortedSwitchCount());
+    }
+
+    @Test
+    public void testBurstOfRequestsCoalesced() {
+        List<SubscriptionInfo> subscriptionInfoList = new ArrayList<SubscriptionInfo>();
+        SubscriptionInfo subscriptionInfo = new SubscriptionInfo(5, "", 1, "TMO", "TMO", 1, 1,
+                "123", 1, null, "310", "210", "", false, null, "1");
+        subscriptionInfoList.add(subscriptionInfo);
+        ArrayList<String> mccMncs = new ArrayList<>();
+        mccMncs.add("310210");
+        ArrayList<AvailableNetworkInfo> supersededRequest = new ArrayList<AvailableNetworkInfo>();
+        supersededRequest.add(new AvailableNetworkInfo(5, 2, mccMncs, new ArrayList<Integer>()));
+        ArrayList<AvailableNetworkInfo> latestRequest = new ArrayList<AvailableNetworkInfo>();
+        latestRequest.add(new AvailableNetworkInfo(5, 1, mccMncs, new ArrayList<Integer>()));
+
+        IUpdateAvailableNetworksCallback mCallback = new IUpdateAvailableNetworksCallback.Stub() {
+            @Override
+            public void onComplete(int result) {
+                mResult = result;
+            }
+        };
+
+        mResult = -1;
+        mReady = false;
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Looper.prepare();
+                doReturn(subscriptionInfoList).when(mSubscriptionManager)
+                        .getOpportunisticSubscriptions();
+                mONSProfileSelector = new MyONSProfileSelector(mContext,
+                        mONSProfileSelectionCallback);
+                mONSProfileSelector.updateOppSubs();
+                /* all posted before the looper runs */
+                mONSProfileSelector.startProfileSelection(supersededRequest, mCallback);
+                mONSProfileSelector.stopProfileSelection(null);
+                mONSProfileSelector.startProfileSelection(latestRequest, null);
+                mLooper = Looper.myLooper();
+                setReady(true);
+                Looper.loop();
+            }
+        }).start();
+        waitUntilReady();
+        waitForMs(500);
+
+        /* a single scan for the latest request, the superseded one is aborted */
+        verify(mONSNetworkScanCtlr, times(1)).startFastNetworkScan(any());
+        assertEquals(ONSProfileSelector.SelectionState.SCANNING,
+                mONSProfileSelector.getSelectionState());
+        assertEquals(TelephonyManager.UPDATE_AVAILABLE_NETWORKS_ABORTED, mResult);
+    }
+
+    @Test
+    public void testRestoreSelectedProfile() {
+        List<SubscriptionInfo> subscriptionInfoList = new ArrayList<SubscriptionInfo>();
+        SubscriptionInfo subscriptionInfo = new SubscriptionInfo(5, "", 1, "TMO", "TMO", 1, 1,
+                "123", 1, null, "310", "210", "", true, null, "1", true, null, 0, 0);
+        subscriptionInfoList.add(subscriptionInfo);
+        doReturn(subscriptionInfoList).when(mSubscriptionManager).getOpportunisticSubscriptions();
+        doReturn(subscriptionInfoList).when(mSubscriptionManager)
+                .getActiveSubscriptionInfoList(anyBoolean());
+        doReturn(true).when(mSubscriptionBoundTelephonyManager).enableModemForSlot(
+                anyInt(), anyBoolean());
+        mDataSubId = -1;
+        mONSProfileSelector = new MyONSProfileSelector(mContext,
+                new MyONSProfileSelector.ONSProfileSelectionCallback() {
+                    public void onProfileSelectionDone() {}
+
+                    public void onProfileSelected(int subId) {
+                        mDataSubId = subId;
+                    }
+                });
+        mONSProfileSelector.updateOppSubs();
+
+        /* an inactive subscription is left alone */
+        mONSProfileSelector.restoreSelectedProfile(6);
+        mONSProfileSelector.processAllMessages();
+        verify(mSubscriptionBoundTelephonyManager, never()).enableModemForSlot(anyInt(), eq(true));
+
+        mONSProfileSelector.restoreSelectedProfile(5);
+        mONSProfileSelector.processAllMessages();
+        verify(mSubscriptionBoundTelephonyManager).enableModemForSlot(1, true);
+        assertEquals(5, mDataSubId);
+        assertEquals(ONSProfileSelector.SelectionState.IDLE,
+                mONSProfileSelector.getSelectionState());
+    }
+
+    @Test
+    public void testEnableModemFollowsReportedState() {
+        List<SubscriptionInfo> subscriptionInfoList = new ArrayList<SubscriptionInfo>();
+        SubscriptionInfo subscriptionInfo = new SubscriptionInfo(5, "", 1, "TMO", "TMO", 1, 1,
+                "123", 1, null, "310", "210", "", true, null, "1", true, null, 0, 0);
+        subscriptionInfoList.add(subscriptionInfo);
+        doReturn(subscriptionInfoList).when(mSubscriptionManager).getOpportunisticSubscriptions();
+        doReturn(subscriptionInfoList).when(mSubscriptionManager)
+                .getActiveSubscriptionInfoList(anyBoolean());
+        doReturn(true).when(mSubscriptionBoundTelephonyManager).enableModemForSlot(
+                anyInt(), anyBoolean());
+        mONSProfileSelector = new MyONSProfileSelector(mContext,
+                new MyONSProfileSelector.ONSProfileSelectionCallback() {
+                    public void onProfileSelectionDone() {}
+                });
+        mONSProfileSelector.updateOppSubs();
+
+        /* the modem reports the slot enabled, no radio command is needed */
+        doReturn(true).when(mSubscriptionBoundTelephonyManager).isModemEnabledForSlot(1);
+        mONSProfileSelector.restoreSelectedProfile(5);
+        mONSProfileSelector.processAllMessages();
+        verify(mSubscriptionBoundTelephonyManager, never()).enableModemForSlot(anyInt(), eq(true));
+
+        /* the modem was disabled behind our back, the command goes out again */
+        doReturn(false).when(mSubscriptionBoundTelephonyManager).isModemEnabledForSlot(1);
+        mONSProfileSelector.restoreSelectedProfile(5);
+        mONSProfileSelector.processAllMessages();
+        verify(mSubscriptionBoundTelephonyManager).enableModemForSlot(1, true);
+    }
+
+    @Test
+    public void testPreferredDataChangedOutsideOns() {
+        mONSProfileSelector = new MyONSProfileSelector(mContext,
+                new MyONSProfileSelector.ONSProfileSelectionCallback() {
+                    public void onProfileSelectionDone() {}
+                });
+        doReturn(5).when(mSubscriptionManager).getPreferredDataSubscriptionId();
+        assertEquals(5, mONSProfileSelector.getPreferredDataSubscriptionId());
+
+        /* changed by another caller, no subscription listener fires */
+        doReturn(SubscriptionManager.DEFAULT_SUBSCRIPTION_ID).when(mSubscriptionManager)
+                .getPreferredDataSubscriptionId();
+        assertEquals(SubscriptionManager.DEFAULT_SUBSCRIPTION_ID,
+                mONSProfileSelector.getPreferredDataSubscriptionId());
+    }
 }
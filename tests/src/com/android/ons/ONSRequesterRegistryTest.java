@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+package com.android.ons;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import android.telephony.AvailableNetworkInfo;
+
+import androidx.test.runner.AndroidJUnit4;
+
+import com.android.ons.ONSRequesterRegistry.Requester;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.function.Predicate;
+
+@RunWith(AndroidJUnit4.class)
+public class ONSRequesterRegistryTest {
+    private static final Predicate<ONSConfigInput> NO_STANDALONE = input -> false;
+    private static final Predicate<ONSConfigInput> ALL_STANDALONE = input -> true;
+
+    private static ONSConfigInput createInput(int subId) {
+        ArrayList<AvailableNetworkInfo> availableNetworks = new ArrayList<>();
+        availableNetworks.add(new AvailableNetworkInfo(subId, 1, new ArrayList<String>(),
+                new ArrayList<Integer>()));
+        return new ONSConfigInput(availableNetworks, null);
+    }
+
+    @Test
+    public void testPriority() {
+        ONSRequesterRegistry registry = new ONSRequesterRegistry();
+        assertNull(registry.arbitrate(NO_STANDALONE));
+
+        registry.set(Requester.SYSTEM_APP, createInput(5));
+        assertEquals(Requester.SYSTEM_APP, registry.arbitrate(NO_STANDALONE));
+        registry.set(Requester.CARRIER_APP, createInput(6));
+        assertEquals(Requester.CARRIER_APP, registry.arbitrate(NO_STANDALONE));
+    }
+
+    @Test
+    public void testStandaloneOverride() {
+        ONSRequesterRegistry registry = new ONSRequesterRegistry();
+        ONSConfigInput systemAppInput = createInput(5);
+        registry.set(Requester.CARRIER_APP, createInput(6));
+        registry.set(Requester.SYSTEM_APP, systemAppInput);
+
+        assertEquals(Requester.SYSTEM_APP, registry.arbitrate(ALL_STANDALONE));
+        assertEquals(Requester.SYSTEM_APP,
+                registry.arbitrate(input -> input == systemAppInput));
+        assertEquals(Requester.CARRIER_APP,
+                registry.arbitrate(input -> input != systemAppInput));
+    }
+
+    @Test
+    public void testFallbackOnWithdrawal() {
+        ONSRequesterRegistry registry = new ONSRequesterRegistry();
+        registry.set(Requester.CARRIER_APP, createInput(6));
+        registry.set(Requester.SYSTEM_APP, createInput(5));
+
+        registry.clear(Requester.CARRIER_APP);
+        assertNull(registry.get(Requester.CARRIER_APP));
+        assertEquals(Requester.SYSTEM_APP, registry.arbitrate(NO_STANDALONE));
+        registry.clear(Requester.SYSTEM_APP);
+        assertNull(registry.arbitrate(NO_STANDALONE));
+    }
+
+    @Test
+    public void testArbitrateForUnregisteredRequester() {
+        ONSRequesterRegistry registry = new ONSRequesterRegistry();
+        registry.set(Requester.SYSTEM_APP, createInput(5));
+
+        assertEquals(Requester.CARRIER_APP,
+                registry.arbitrate(NO_STANDALONE, Requester.CARRIER_APP));
+        assertEquals(Requester.SYSTEM_APP,
+                registry.arbitrate(ALL_STANDALONE, Requester.CARRIER_APP));
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+package com.android.ons;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.telephony.AccessNetworkConstants;
+import android.telephony.NetworkScanRequest;
+import android.telephony.RadioAccessSpecifier;
+
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+@RunWith(AndroidJUnit4.class)
+public class ONSScanCoverageTest {
+    private static final int PERIODICITY = 60;
+    private static final int MAX_SEARCH_TIME = 60;
+
+    @Test
+    public void testSameRequestIsCovered() {
+        ONSScanCoverage coverage = ONSScanCoverage.from(createRequest(
+                new int[] {AccessNetworkConstants.NgranBands.BAND_71}, null, "310210"));
+        ONSScanCoverage sameCoverage = ONSScanCoverage.from(createRequest(
+                new int[] {AccessNetworkConstants.NgranBands.BAND_71}, null, "310210"));
+        assertTrue(coverage.covers(sameCoverage));
+        assertTrue(sameCoverage.isCoveredBy(coverage));
+    }
+
+    @Test
+    public void testNarrowerRequestIsCovered() {
+        ONSScanCoverage wide = ONSScanCoverage.from(createRequest(
+                new int[] {AccessNetworkConstants.NgranBands.BAND_48,
+                        AccessNetworkConstants.NgranBands.BAND_71},
+                new int[] {AccessNetworkConstants.EutranBand.BAND_48},
+                "310210", "311480"));
+        ONSScanCoverage narrow = ONSScanCoverage.from(createRequest(
+                new int[] {AccessNetworkConstants.NgranBands.BAND_71}, null, "311480"));
+        assertTrue(wide.covers(narrow));
+        assertFalse(narrow.covers(wide));
+    }
+
+    @Test
+    public void testRequestWithOtherBandOrPlmnIsNotCovered() {
+        ONSScanCoverage coverage = ONSScanCoverage.from(createRequest(
+                new int[] {AccessNetworkConstants.NgranBands.BAND_71}, null, "310210"));
+        assertFalse(coverage.covers(ONSScanCoverage.from(createRequest(
+                new int[] {AccessNetworkConstants.NgranBands.BAND_48}, null, "310210"))));
+        assertFalse(coverage.covers(ONSScanCoverage.from(createRequest(
+                new int[] {AccessNetworkConstants.NgranBands.BAND_71}, null, "311480"))));
+        assertFalse(coverage.covers(ONSScanCoverage.from(createRequest(
+                new int[] {AccessNetworkConstants.NgranBands.BAND_71},
+                new int[] {AccessNetworkConstants.EutranBand.BAND_48}, "310210"))));
+    }
+
+    private NetworkScanRequest createRequest(int[] nrBands, int[] lteBands, String... mccMncs) {
+        ArrayList<RadioAccessSpecifier> ras = new ArrayList<>();
+        ras.add(new RadioAccessSpecifier(AccessNetworkConstants.AccessNetworkType.NGRAN,
+                nrBands, null));
+        if (lteBands != null) {
+            ras.add(new RadioAccessSpecifier(AccessNetworkConstants.AccessNetworkType.EUTRAN,
+                    lteBands, null));
+        }
+        return new NetworkScanRequest(NetworkScanRequest.SCAN_TYPE_PERIODIC,
+                ras.toArray(new RadioAccessSpecifier[0]), PERIODICITY, MAX_SEARCH_TIME, false,
+                NetworkScanRequest.MAX_INCREMENTAL_PERIODICITY_SEC,
+                new ArrayList<>(Arrays.asList(mccMncs)));
+    }
+}
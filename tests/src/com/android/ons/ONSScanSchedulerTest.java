@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+package com.android.ons;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.os.PersistableBundle;
+
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(AndroidJUnit4.class)
+public class ONSScanSchedulerTest {
+
+    @Test
+    public void testIntervalWidensOnEmptyCyclesUpToMax() {
+        ONSScanScheduler scheduler = new ONSScanScheduler();
+        scheduler.setBounds(60, 300);
+        assertEquals(60000, scheduler.getNextScanDelayMs());
+
+        scheduler.onCycleComplete(false);
+        assertEquals(120000, scheduler.getNextScanDelayMs());
+        scheduler.onCycleComplete(false);
+        assertEquals(240000, scheduler.getNextScanDelayMs());
+        scheduler.onCycleComplete(false);
+        assertEquals(300000, scheduler.getNextScanDelayMs());
+        scheduler.onCycleComplete(false);
+        assertEquals(300000, scheduler.getNextScanDelayMs());
+        assertEquals(4, scheduler.getConsecutiveEmptyCycles());
+    }
+
+    @Test
+    public void testIntervalTightensOnHit() {
+        ONSScanScheduler scheduler = new ONSScanScheduler();
+        scheduler.setBounds(60, 600);
+        scheduler.onCycleComplete(false);
+        scheduler.onCycleComplete(false);
+
+        scheduler.onCycleComplete(true);
+        assertEquals(60000, scheduler.getNextScanDelayMs());
+        assertEquals(0, scheduler.getConsecutiveEmptyCycles());
+    }
+
+    @Test
+    public void testIntervalTightensOnServingCellChange() {
+        ONSScanScheduler scheduler = new ONSScanScheduler();
+        scheduler.setBounds(60, 600);
+        assertFalse(scheduler.onServingCellChanged());
+
+        scheduler.onCycleComplete(false);
+        assertTrue(scheduler.onServingCellChanged());
+        assertEquals(60000, scheduler.getNextScanDelayMs());
+    }
+
+    @Test
+    public void testBoundsFromCarrierConfig() {
+        ONSScanScheduler scheduler = new ONSScanScheduler();
+        PersistableBundle config = new PersistableBundle();
+        config.putInt(ONSCarrierConfig.KEY_OPPORTUNISTIC_NETWORK_SCAN_MIN_INTERVAL_SEC_INT, 30);
+        config.putInt(ONSCarrierConfig.KEY_OPPORTUNISTIC_NETWORK_SCAN_MAX_INTERVAL_SEC_INT, 90);
+        scheduler.updateBounds(ONSCarrierConfig.fromBundle(1, config));
+        assertEquals(30, scheduler.getMinIntervalSec());
+        scheduler.onCycleComplete(false);
+        scheduler.onCycleComplete(false);
+        assertEquals(90000, scheduler.getNextScanDelayMs());
+
+        // inconsistent bounds fall back to the defaults
+        config.putInt(ONSCarrierConfig.KEY_OPPORTUNISTIC_NETWORK_SCAN_MAX_INTERVAL_SEC_INT, 10);
+        scheduler.updateBounds(ONSCarrierConfig.fromBundle(1, config));
+        assertEquals(ONSScanScheduler.DEFAULT_MIN_INTERVAL_SEC, scheduler.getMinIntervalSec());
+
+        scheduler.updateBounds(null);
+        assertEquals(ONSScanScheduler.DEFAULT_MIN_INTERVAL_SEC, scheduler.getMinIntervalSec());
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+package com.android.ons;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.telephony.CellInfo;
+import android.telephony.CellInfoLte;
+import android.telephony.CellSignalStrengthLte;
+
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(AndroidJUnit4.class)
+public class ONSSignalScorerTest {
+
+    private static CellInfoLte createLteCell(int rsrp, int rsrq, int rssnr) {
+        CellInfoLte cellInfoLte = new CellInfoLte();
+        cellInfoLte.setCellSignalStrength(new CellSignalStrengthLte(CellInfo.UNAVAILABLE,
+                rsrp, rsrq, rssnr, CellInfo.UNAVAILABLE, CellInfo.UNAVAILABLE));
+        return cellInfoLte;
+    }
+
+    @Test
+    public void testStrongerLteCellScoresHigher() {
+        int strong = ONSSignalScorer.score(createLteCell(-80, -8, 20));
+        int weak = ONSSignalScorer.score(createLteCell(-115, -15, 0));
+
+        assertTrue(strong > weak);
+        assertTrue(strong <= ONSSignalScorer.MAX_SCORE);
+        assertTrue(weak >= 0);
+    }
+
+    @Test
+    public void testRangeBounds() {
+        assertEquals(ONSSignalScorer.MAX_SCORE,
+                ONSSignalScorer.score(createLteCell(-44, -3, 30)));
+        assertEquals(0, ONSSignalScorer.score(createLteCell(-140, -20, -20)));
+    }
+
+    @Test
+    public void testUnavailableMeasurementsAreLeftOut() {
+        // RSRQ and RSSNR unavailable: the score is the RSRP score alone.
+        assertEquals(ONSSignalScorer.MAX_SCORE, ONSSignalScorer.score(
+                createLteCell(-44, CellInfo.UNAVAILABLE, CellInfo.UNAVAILABLE)));
+        assertEquals(ONSSignalScorer.NO_SCORE, ONSSignalScorer.score(null));
+    }
+}
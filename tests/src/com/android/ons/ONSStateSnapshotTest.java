@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+package com.android.ons;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Mockito.*;
+
+import android.os.PersistableBundle;
+import android.telephony.AccessNetworkConstants;
+import android.telephony.AvailableNetworkInfo;
+import android.telephony.RadioAccessSpecifier;
+import android.telephony.SubscriptionManager;
+
+import androidx.test.InstrumentationRegistry;
+import androidx.test.runner.AndroidJUnit4;
+
+import com.android.ons.ONSRequesterRegistry.Requester;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+@RunWith(AndroidJUnit4.class)
+public class ONSStateSnapshotTest {
+
+    private static ONSRequesterRegistry createRegistry() {
+        ArrayList<AvailableNetworkInfo> carrierNetworks = new ArrayList<>();
+        carrierNetworks.add(new AvailableNetworkInfo(5, AvailableNetworkInfo.PRIORITY_HIGH,
+                new ArrayList<String>(Arrays.asList("310210")),
+                new ArrayList<Integer>(Arrays.asList(13, 66))));
+        ONSConfigInput carrierAppInput = new ONSConfigInput(carrierNetworks, null);
+        carrierAppInput.setPrimarySub(1);
+        carrierAppInput.setPreferredDataSub(5);
+
+        ArrayList<RadioAccessSpecifier> radioAccessSpecifiers = new ArrayList<>();
+        radioAccessSpecifiers.add(new RadioAccessSpecifier(
+                AccessNetworkConstants.AccessNetworkType.NGRAN, new int[] {77, 78}, null));
+        ArrayList<AvailableNetworkInfo> systemNetworks = new ArrayList<>();
+        systemNetworks.add(new AvailableNetworkInfo.Builder()
+                .setSubId(6)
+                .setPriority(AvailableNetworkInfo.PRIORITY_LOW)
+                .setMccMncs(new ArrayList<String>(Arrays.asList("311480", "23415")))
+                .setRadioAccessSpecifiers(radioAccessSpecifiers)
+                .build());
+
+        ONSRequesterRegistry registry = new ONSRequesterRegistry();
+        registry.set(Requester.CARRIER_APP, carrierAppInput);
+        registry.set(Requester.SYSTEM_APP, new ONSConfigInput(systemNetworks, null));
+        return registry;
+    }
+
+    private static void assertRestored(ONSRequesterRegistry registry, ONSStateSnapshot restored) {
+        assertNotNull(restored);
+        assertEquals(5, restored.getLastSelectedSubId());
+        for (Requester requester : Requester.values()) {
+            ONSConfigInput input = registry.get(requester);
+            ONSConfigInput restoredInput = restored.getInput(requester);
+            assertEquals(input.getPrimarySub(), restoredInput.getPrimarySub());
+            assertEquals(input.getPreferredDataSub(), restoredInput.getPreferredDataSub());
+            assertEquals(input.getAvailableNetworkInfos(),
+                    restoredInput.getAvailableNetworkInfos());
+            assertNull(restoredInput.getAvailableNetworkCallback());
+        }
+    }
+
+    @Test
+    public void testBundleRoundTrip() {
+        ONSRequesterRegistry registry = createRegistry();
+        ONSStateSnapshot snapshot = ONSStateSnapshot.from(registry, 5);
+
+        assertRestored(registry, ONSStateSnapshot.fromBundle(snapshot.toBundle()));
+    }
+
+    @Test
+    public void testMissingRequester() {
+        ONSRequesterRegistry registry = createRegistry();
+        registry.clear(Requester.CARRIER_APP);
+        ONSStateSnapshot restored = ONSStateSnapshot.fromBundle(
+                ONSStateSnapshot.from(registry, SubscriptionManager.INVALID_SUBSCRIPTION_ID)
+                        .toBundle());
+
+        assertNull(restored.getInput(Requester.CARRIER_APP));
+        assertNotNull(restored.getInput(Requester.SYSTEM_APP));
+        assertEquals(SubscriptionManager.INVALID_SUBSCRIPTION_ID,
+                restored.getLastSelectedSubId());
+    }
+
+    @Test
+    public void testVersionMismatchDiscarded() {
+        PersistableBundle b = ONSStateSnapshot.from(createRegistry(), 5).toBundle();
+        b.putInt("version", ONSStateSnapshot.VERSION + 1);
+
+        assertNull(ONSStateSnapshot.fromBundle(b));
+        assertNull(ONSStateSnapshot.fromBundle(new PersistableBundle()));
+    }
+
+    @Test
+    public void testStoreRoundTrip() {
+        File file = new File(InstrumentationRegistry.getTargetContext().getCacheDir(),
+                "ons_state_test.xml");
+        file.delete();
+        ScheduledExecutorService executor = mock(ScheduledExecutorService.class);
+        ONSStateStore store = new ONSStateStore(file, executor);
+        assertNull(store.read());
+
+        ONSRequesterRegistry registry = createRegistry();
+        store.write(ONSStateSnapshot.from(registry, 6));
+        store.write(ONSStateSnapshot.from(registry, 5));
+        /* a single write is scheduled, the pending write holds the latest snapshot only */
+        verify(executor, times(1)).schedule(any(Runnable.class),
+                eq(ONSStateStore.WRITE_DELAY_MS), eq(TimeUnit.MILLISECONDS));
+        store.writePending();
+
+        assertRestored(registry, new ONSStateStore(file, executor).read());
+        file.delete();
+    }
+
+    @Test
+    public void testWriteAfterShutdownDropped() {
+        File file = new File(InstrumentationRegistry.getTargetContext().getCacheDir(),
+                "ons_state_test.xml");
+        file.delete();
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+        executor.shutdown();
+        ONSStateStore store = new ONSStateStore(file, executor);
+
+        /* a late state change after onDestroy does not throw into the caller */
+        store.write(ONSStateSnapshot.from(createRegistry(), 5));
+        store.write(ONSStateSnapshot.from(createRegistry(), 6));
+        store.writePending();
+
+        assertNull(store.read());
+    }
+}
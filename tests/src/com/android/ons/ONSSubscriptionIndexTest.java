@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License
+ */
+package com.android.ons;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import android.telephony.AvailableNetworkInfo;
+import android.telephony.SubscriptionInfo;
+
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+@RunWith(AndroidJUnit4.class)
+public class ONSSubscriptionIndexTest {
+
+    private static SubscriptionInfo createSubscriptionInfo(int subId, String groupUuid) {
+        return new SubscriptionInfo(subId, "", 1, "TMO", "TMO", 1, 1, "123", 1, null, "310",
+                "210", "", true, null, "1", true, groupUuid, 1839, 1);
+    }
+
+    private static AvailableNetworkInfo createAvailableNetworkInfo(int subId) {
+        return new AvailableNetworkInfo(subId, AvailableNetworkInfo.PRIORITY_HIGH,
+                new ArrayList<String>(), new ArrayList<Integer>());
+    }
+
+    @Test
+    public void testIndexesOpportunisticAndStandaloneSubs() {
+        SubscriptionInfo grouped = createSubscriptionInfo(5,
+                "fd3b6d36-e3cc-4d5f-aa3c-8c8e21e5b11a");
+        SubscriptionInfo standalone = createSubscriptionInfo(6, null);
+        ONSSubscriptionIndex index =
+                ONSSubscriptionIndex.from(Arrays.asList(grouped, standalone));
+
+        assertEquals(2, index.size());
+        assertEquals(1, index.getStandaloneSize());
+        assertSame(grouped, index.getOpportunisticSubscription(5));
+        assertNull(index.getOpportunisticSubscription(7));
+        assertTrue(index.isOpportunistic(6));
+        assertTrue(index.isStandaloneOpportunistic(6));
+        assertFalse(index.isStandaloneOpportunistic(5));
+    }
+
+    @Test
+    public void testContainsAvailableNetworks() {
+        ONSSubscriptionIndex index = ONSSubscriptionIndex.from(
+                Arrays.asList(createSubscriptionInfo(5, null), createSubscriptionInfo(6, null)));
+        List<AvailableNetworkInfo> availableNetworks = new ArrayList<AvailableNetworkInfo>();
+        availableNetworks.add(createAvailableNetworkInfo(5));
+        availableNetworks.add(createAvailableNetworkInfo(6));
+
+        assertTrue(index.containsAllOpportunistic(availableNetworks));
+        availableNetworks.add(createAvailableNetworkInfo(7));
+        assertFalse(index.containsAllOpportunistic(availableNetworks));
+        assertTrue(index.containsAnyOpportunistic(availableNetworks));
+        assertTrue(index.containsAnyStandaloneOpportunistic(availableNetworks));
+    }
+
+    @Test
+    public void testFilterKeepsOrderAndInput() {
+        ONSSubscriptionIndex index = ONSSubscriptionIndex.from(
+                Arrays.asList(createSubscriptionInfo(5, null), createSubscriptionInfo(8, null)));
+        List<AvailableNetworkInfo> availableNetworks = new ArrayList<AvailableNetworkInfo>();
+        availableNetworks.add(createAvailableNetworkInfo(8));
+        availableNetworks.add(createAvailableNetworkInfo(7));
+        availableNetworks.add(createAvailableNetworkInfo(5));
+        List<AvailableNetworkInfo> input = new ArrayList<AvailableNetworkInfo>(availableNetworks);
+
+        List<AvailableNetworkInfo> filtered = index.filterOpportunistic(availableNetworks);
+
+        assertEquals(2, filtered.size());
+        assertEquals(8, filtered.get(0).getSubId());
+        assertEquals(5, filtered.get(1).getSubId());
+        assertEquals(input, availableNetworks);
+    }
+
+    @Test
+    public void testNoSubscriptions() {
+        ONSSubscriptionIndex index = ONSSubscriptionIndex.from(null);
+
+        assertEquals(0, index.size());
+        assertTrue(index.getOpportunisticSubscriptions().isEmpty());
+        assertFalse(index.containsAnyOpportunistic(
+                Arrays.asList(createAvailableNetworkInfo(5))));
+    }
+}
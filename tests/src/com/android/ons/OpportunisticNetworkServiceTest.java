@@ -44,7 +44,6 @@ import org.junit.runner.RunWith;
 import org.mockito.Mock;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 
 @RunWith(AndroidJUnit4.class)
 public class OpportunisticNetworkServiceTest extends ONSBaseTest {
@@ -55,11 +54,9 @@ public class OpportunisticNetworkServiceTest extends ONSBaseTest {
     private IOns iOpportunisticNetworkService;
     private Looper mLooper;
     private OpportunisticNetworkService mOpportunisticNetworkService;
-    private static final String CARRIER_APP_CONFIG_NAME = "carrierApp";
-    private static final String SYSTEM_APP_CONFIG_NAME = "systemApp";
 
     @Mock
-    private HashMap<String, ONSConfigInput> mockONSConfigInputHashMap;
+    private ONSRequesterRegistry mockRequesterRegistry;
     @Mock
     private ONSProfileSelector mockProfileSelector;
 
@@ -130,22 +127,28 @@ public class OpportunisticNetworkServiceTest extends ONSBaseTest {
         ArrayList<SubscriptionInfo> subscriptionInfos = new ArrayList<SubscriptionInfo>();
 
         // Case 1: There is no Carrier app using ONS.
-        doReturn(null).when(mockONSConfigInputHashMap).get(CARRIER_APP_CONFIG_NAME);
+        doReturn(null).when(mockRequesterRegistry).get(ONSRequesterRegistry.Requester.CARRIER_APP);
         mOpportunisticNetworkService.mIsEnabled = true;
-        mOpportunisticNetworkService.mONSConfigInputHashMap = mockONSConfigInputHashMap;
+        mOpportunisticNetworkService.mRequesterRegistry = mockRequesterRegistry;
         mOpportunisticNetworkService.handleSimStateChange();
         waitForMs(500);
-        verify(mockONSConfigInputHashMap, never()).get(SYSTEM_APP_CONFIG_NAME);
+        verify(mockRequesterRegistry, never()).arbitrate(any());
 
         // Case 2: There is a Carrier app using ONS and no System app input.
         doReturn(subscriptionInfos).when(mSubscriptionManager).getActiveSubscriptionInfoList(false);
-        doReturn(onsConfigInput).when(mockONSConfigInputHashMap).get(CARRIER_APP_CONFIG_NAME);
-        doReturn(null).when(mockONSConfigInputHashMap).get(SYSTEM_APP_CONFIG_NAME);
+        doReturn(onsConfigInput).when(mockRequesterRegistry).get(
+                ONSRequesterRegistry.Requester.CARRIER_APP);
         mOpportunisticNetworkService.mIsEnabled = true;
-        mOpportunisticNetworkService.mONSConfigInputHashMap = mockONSConfigInputHashMap;
+        mOpportunisticNetworkService.mRequesterRegistry = mockRequesterRegistry;
         mOpportunisticNetworkService.handleSimStateChange();
         waitForMs(50);
-        verify(mockONSConfigInputHashMap,times(1)).get(SYSTEM_APP_CONFIG_NAME);
+        verify(mockRequesterRegistry, times(1)).clear(ONSRequesterRegistry.Requester.CARRIER_APP);
+        verify(mockRequesterRegistry, times(1)).arbitrate(any());
+
+        // Case 3: Active subscriptions did not change since the last SIM state change.
+        mOpportunisticNetworkService.handleSimStateChange();
+        waitForMs(50);
+        verify(mockRequesterRegistry, times(1)).arbitrate(any());
     }
 
     @Test
@@ -171,9 +174,10 @@ public class OpportunisticNetworkServiceTest extends ONSBaseTest {
         ArrayList<SubscriptionInfo> subscriptionInfos = new ArrayList<SubscriptionInfo>();
 
         doReturn(subscriptionInfos).when(mSubscriptionManager).getActiveSubscriptionInfoList(false);
-        doReturn(onsConfigInput).when(mockONSConfigInputHashMap).get(CARRIER_APP_CONFIG_NAME);
+        ONSRequesterRegistry requesterRegistry = new ONSRequesterRegistry();
+        requesterRegistry.set(ONSRequesterRegistry.Requester.CARRIER_APP, onsConfigInput);
         mOpportunisticNetworkService.mIsEnabled = true;
-        mOpportunisticNetworkService.mONSConfigInputHashMap = mockONSConfigInputHashMap;
+        mOpportunisticNetworkService.mRequesterRegistry = requesterRegistry;
 
         mResult = -1;
         ISetOpportunisticDataCallback callbackStub = new ISetOpportunisticDataCallback.Stub() {
@@ -300,11 +304,12 @@ public class OpportunisticNetworkServiceTest extends ONSBaseTest {
         ONSConfigInput onsConfigInput = new ONSConfigInput(availableNetworkInfos, mCallback);
         onsConfigInput.setPrimarySub(1);
         onsConfigInput.setPreferredDataSub(availableNetworkInfos.get(0).getSubId());
-        doReturn(onsConfigInput).when(mockONSConfigInputHashMap).get(CARRIER_APP_CONFIG_NAME);
+        ONSRequesterRegistry requesterRegistry = new ONSRequesterRegistry();
+        requesterRegistry.set(ONSRequesterRegistry.Requester.CARRIER_APP, onsConfigInput);
         doReturn(true).when(mockProfileSelector).hasOpprotunisticSub(any());
         doReturn(false).when(mockProfileSelector).containStandaloneOppSubs(any());
         mOpportunisticNetworkService.mIsEnabled = true;
-        mOpportunisticNetworkService.mONSConfigInputHashMap = mockONSConfigInputHashMap;
+        mOpportunisticNetworkService.mRequesterRegistry = requesterRegistry;
         mOpportunisticNetworkService.mProfileSelector = mockProfileSelector;
 
         // Assume carrier app has updated available networks at first.
@@ -340,7 +345,7 @@ public class OpportunisticNetworkServiceTest extends ONSBaseTest {
 
         // System app updated available networks which equal to null.
         // Case2: stop profile selection, if there is no any carrier app request.
-        doReturn(null).when(mockONSConfigInputHashMap).get(CARRIER_APP_CONFIG_NAME);
+        requesterRegistry.clear(ONSRequesterRegistry.Requester.CARRIER_APP);
         try {
             IOns onsBinder = (IOns) mOpportunisticNetworkService.onBind(null);
             onsBinder.updateAvailableNetworks(availableNetworkInfos, mCallback, pkgForDebug);
@@ -350,6 +355,40 @@ public class OpportunisticNetworkServiceTest extends ONSBaseTest {
         verify(mockProfileSelector, times(1)).stopProfileSelection(any());
     }
 
+    @Test
+    public void testRepostOfSameNetworksSkipsArbitration() {
+        ArrayList<String> mccMncs = new ArrayList<>();
+        mccMncs.add("310210");
+        ArrayList<AvailableNetworkInfo> availableNetworkInfos =
+                new ArrayList<AvailableNetworkInfo>();
+        availableNetworkInfos.add(new AvailableNetworkInfo(1, 1, mccMncs,
+                new ArrayList<Integer>()));
+        IUpdateAvailableNetworksCallback mCallback = new IUpdateAvailableNetworksCallback.Stub() {
+            @Override
+            public void onComplete(int result) {
+                mResult = result;
+            }
+        };
+        doReturn(true).when(mockProfileSelector).hasOpprotunisticSub(any());
+        doReturn(true).when(mockProfileSelector).containStandaloneOppSubs(any());
+        mOpportunisticNetworkService.mIsEnabled = true;
+        mOpportunisticNetworkService.mRequesterRegistry = new ONSRequesterRegistry();
+        mOpportunisticNetworkService.mProfileSelector = mockProfileSelector;
+
+        try {
+            IOns onsBinder = (IOns) mOpportunisticNetworkService.onBind(null);
+            onsBinder.updateAvailableNetworks(availableNetworkInfos, mCallback, pkgForDebug);
+            /* same networks in a new list */
+            onsBinder.updateAvailableNetworks(new ArrayList<>(availableNetworkInfos), mCallback,
+                    pkgForDebug);
+        } catch (RemoteException ex) {
+            Log.e(TAG, "RemoteException", ex);
+        }
+        /* the re-post is handed to the selector without arbitration */
+        verify(mockProfileSelector, times(2)).startProfileSelection(any(), any());
+        verify(mockProfileSelector, times(1)).containStandaloneOppSubs(any());
+    }
+
     private IOns getIOns() {
         return IOns.Stub.asInterface(
                 TelephonyFrameworkInitializer